@@ -0,0 +1,115 @@
+package com.levelup.picturecache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * file operations in a cache folder holding many pictures, with all the files in the cache folder and split with {@link CacheShards}
+ * <p>
+ * run it with the temporary folder (java.io.tmpdir) on the storage to measure, the results depend a lot on the file system
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheShardsBenchmark {
+
+	@Param({"100000"})
+	int fileCount;
+
+	private File mRoot;
+	private File mFlatFolder;
+	private CacheShards mShards;
+	private CacheKey[] mKeys;
+	private int mNext;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		mRoot = File.createTempFile("shardbench", "");
+		mRoot.delete();
+		mFlatFolder = new File(mRoot, "flat");
+		mFlatFolder.mkdirs();
+		mShards = new CacheShards(new File(mRoot, "sharded"));
+
+		mKeys = new CacheKey[fileCount];
+		for (int i=0; i<fileCount; ++i) {
+			mKeys[i] = CacheKey.newUrlBasedKey("http://pbs.example.com/profile_images/"+i+"/avatar_normal.jpg", 48, false, StorageType.AUTO, null);
+			new File(mFlatFolder, mKeys[i].getFilename()).createNewFile();
+			new File(mShards.prepareFolder(mKeys[i]), mKeys[i].getFilename()).createNewFile();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		delete(mRoot);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	private CacheKey nextKey() {
+		mNext = (mNext + 7919) % fileCount; // spread the accesses
+		return mKeys[mNext];
+	}
+
+	@Benchmark
+	public boolean lookupFlat() {
+		return new File(mFlatFolder, nextKey().getFilename()).exists();
+	}
+
+	@Benchmark
+	public boolean lookupSharded() {
+		final CacheKey key = nextKey();
+		return new File(mShards.getFolder(key), key.getFilename()).exists();
+	}
+
+	@Benchmark
+	public boolean createDeleteFlat() throws IOException {
+		File file = new File(mFlatFolder, "new_"+nextKey().getFilename());
+		return file.createNewFile() && file.delete();
+	}
+
+	@Benchmark
+	public boolean createDeleteSharded() throws IOException {
+		final CacheKey key = nextKey();
+		File file = new File(mShards.prepareFolder(key), "new_"+key.getFilename());
+		return file.createNewFile() && file.delete();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void listFlat(Blackhole blackhole) {
+		blackhole.consume(mFlatFolder.list());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void listSharded(Blackhole blackhole) {
+		for (File parent : mShards.getFolder(mKeys[0]).getParentFile().getParentFile().listFiles())
+			for (File folder : parent.listFiles())
+				blackhole.consume(folder.list());
+	}
+}
@@ -0,0 +1,190 @@
+package com.levelup.picturecache;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * hit rate of a Bitmap memory cache on a trace of picture accesses, with a plain LRU and with the TinyLFU admission of {@link BitmapMemoryCache}
+ * <p>
+ * {@link BitmapMemoryCache} needs Android Bitmaps, so its admission rule is replayed here with the same {@link FrequencySketch}:
+ * a new picture that pushes others out is only kept if it's been asked more often than each of them.
+ * <p>
+ * the trace is a text file with a picture key and its size in bytes on each line, when no file is given a timeline is generated:
+ * avatars of a few hundred accounts that come back all the time, with media seen only once in between.
+ * <pre>java com.levelup.picturecache.HitRateSimulation [trace file]</pre>
+ */
+public class HitRateSimulation {
+
+	private static class Access {
+		final String key;
+		final int size;
+
+		Access(String key, int size) {
+			this.key = key;
+			this.size = size;
+		}
+	}
+
+	private static class Node {
+		final String key;
+		final int size;
+		Node prev;
+		Node next;
+
+		Node(String key, int size) {
+			this.key = key;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * LRU cache limited by size, optionally with the TinyLFU admission
+	 */
+	private static class Cache {
+		private final long mMaxSize;
+		private final FrequencySketch mSketch;
+		private final HashMap<String, Node> mNodes = new HashMap<String, Node>();
+		private Node mHead; // least recently used
+		private Node mTail;
+		private long mSize;
+		int hits;
+		int misses;
+
+		Cache(long maxSize, boolean tinyLfu, int expectedEntries) {
+			this.mMaxSize = maxSize;
+			this.mSketch = tinyLfu ? new FrequencySketch(expectedEntries) : null;
+		}
+
+		void access(Access access) {
+			final int hash = access.key.hashCode();
+			if (mSketch != null)
+				mSketch.increment(hash);
+			Node node = mNodes.get(access.key);
+			if (node != null) {
+				++hits;
+				unlink(node);
+				link(node);
+				return;
+			}
+
+			++misses;
+			if (access.size > mMaxSize / 2)
+				return;
+			if (mSketch != null && !admit(hash, access.size))
+				return;
+			node = new Node(access.key, access.size);
+			mNodes.put(access.key, node);
+			link(node);
+			mSize += node.size;
+			while (mSize > mMaxSize) {
+				Node victim = mHead;
+				unlink(victim);
+				mNodes.remove(victim.key);
+				mSize -= victim.size;
+			}
+		}
+
+		private boolean admit(int hash, int size) {
+			long needed = mSize + size - mMaxSize;
+			final int frequency = mSketch.frequency(hash);
+			for (Node victim = mHead; needed > 0 && victim != null; victim = victim.next) {
+				if (mSketch.frequency(victim.key.hashCode()) >= frequency)
+					return false;
+				needed -= victim.size;
+			}
+			return true;
+		}
+
+		private void link(Node node) {
+			node.next = null;
+			node.prev = mTail;
+			if (mTail != null)
+				mTail.next = node;
+			else
+				mHead = node;
+			mTail = node;
+		}
+
+		private void unlink(Node node) {
+			if (node.prev != null)
+				node.prev.next = node.next;
+			else
+				mHead = node.next;
+			if (node.next != null)
+				node.next.prev = node.prev;
+			else
+				mTail = node.prev;
+		}
+	}
+
+	private static ArrayList<Access> readTrace(String path) throws IOException {
+		ArrayList<Access> trace = new ArrayList<Access>();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.trim().split("\\s+");
+				if (parts.length == 2)
+					trace.add(new Access(parts[0], Integer.parseInt(parts[1])));
+			}
+		} finally {
+			reader.close();
+		}
+		return trace;
+	}
+
+	/**
+	 * a timeline scrolled back and forth: the authors follow a power law, a third of the tweets have a picture nobody sees twice
+	 */
+	private static ArrayList<Access> generateTimeline(int tweetCount) {
+		final int accountCount = 300;
+		final int avatarSize = 48 * 48 * 4 * 4; // 96dp on a xxhdpi screen
+		final int mediaSize = 600 * 340 * 4;
+		final Random random = new Random(42);
+
+		final double[] popularity = new double[accountCount];
+		double total = 0;
+		for (int i=0; i<accountCount; ++i)
+			total += popularity[i] = 1.0 / Math.pow(i + 1, 0.8);
+
+		ArrayList<Access> trace = new ArrayList<Access>();
+		for (int tweet=0; tweet<tweetCount; ++tweet) {
+			double pick = random.nextDouble() * total;
+			int account = 0;
+			while (pick > popularity[account] && account < accountCount - 1)
+				pick -= popularity[account++];
+			trace.add(new Access("avatar"+account, avatarSize));
+			if (random.nextInt(3) == 0)
+				trace.add(new Access("media"+tweet, mediaSize));
+		}
+		return trace;
+	}
+
+	public static void main(String[] args) throws IOException {
+		final ArrayList<Access> trace = args.length > 0 ? readTrace(args[0]) : generateTimeline(200000);
+		long totalSize = 0;
+		HashMap<String, Integer> distinct = new HashMap<String, Integer>();
+		for (Access access : trace)
+			distinct.put(access.key, access.size);
+		for (int size : distinct.values())
+			totalSize += size;
+		System.out.println(trace.size()+" accesses to "+distinct.size()+" pictures of "+(totalSize / 1024 / 1024)+"MB");
+
+		for (int megabytes : new int[] { 2, 4, 8, 16 }) {
+			final long maxSize = megabytes * 1024L * 1024L;
+			final int expectedEntries = (int) (maxSize / (32 * 1024)); // as BitmapMemoryCache does
+			Cache lru = new Cache(maxSize, false, expectedEntries);
+			Cache tinyLfu = new Cache(maxSize, true, expectedEntries);
+			for (Access access : trace) {
+				lru.access(access);
+				tinyLfu.access(access);
+			}
+			System.out.println(String.format("%2dMB  LRU %5.1f%%  TinyLFU %5.1f%%", megabytes,
+					100.0 * lru.hits / trace.size(), 100.0 * tinyLfu.hits / trace.size()));
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package com.levelup.picturecache;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * writing and loading the index with the {@link IndexJournal} and with a SQLite table like the one of {@link PictureCache}
+ * <p>
+ * Android's SQLite can't run on a JVM, the same SQLite engine is used through the sqlite-jdbc driver with the same table and statements.
+ * The numbers compare the two formats on the same disk, not what a device does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexStorageBenchmark {
+
+	private static final String CREATE_TABLE =
+			"CREATE TABLE IF NOT EXISTS Pictures " +
+					"(UUID VARCHAR, " +
+					"SRC_URL VARCHAR not null, " +
+					"TYPE INTEGER DEFAULT 0, " +
+					"PATH VARCHAR, " +
+					"REMOTE_DATE LONG DEFAULT 0, " +
+					"DATE LONG not null DEFAULT -1, " +
+					"FILE_SIZE LONG DEFAULT -1, " +
+					"PRIMARY KEY (UUID));";
+
+	/** number of changes written together, 1 is a change written alone, more are written in one transaction or flush */
+	@Param({"1", "100"})
+	int batchSize;
+
+	/** number of items in the index loaded at startup */
+	@Param({"10000"})
+	int itemCount;
+
+	private File mFolder;
+	private IndexJournal mJournal;
+	private File mJournalFile;
+	private Connection mDb;
+	private PreparedStatement mReplace;
+	private CacheKey[] mKeys;
+	private CacheItem[] mItems;
+	private int mNext;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, SQLException {
+		mFolder = File.createTempFile("indexbench", "");
+		mFolder.delete();
+		mFolder.mkdirs();
+
+		mKeys = new CacheKey[itemCount];
+		mItems = new CacheItem[itemCount];
+		for (int i=0; i<itemCount; ++i) {
+			final String url = "http://pbs.example.com/profile_images/"+i+"/avatar_normal.jpg";
+			mKeys[i] = CacheKey.newUrlBasedKey(url, 48, false, StorageType.AUTO, null);
+			mItems[i] = new CacheItem(new File(mFolder, mKeys[i].getFilename()), url);
+			mItems[i].lifeSpan = LifeSpan.SHORTTERM;
+			mItems[i].lastAccessDate = System.currentTimeMillis();
+			mItems[i].fileSize = 4000;
+		}
+
+		mJournalFile = new File(mFolder, "PictureCache.journal");
+		mJournal = new IndexJournal(mJournalFile);
+		mDb = DriverManager.getConnection("jdbc:sqlite:"+new File(mFolder, "PictureCachev2.sqlite").getAbsolutePath());
+		Statement create = mDb.createStatement();
+		create.execute(CREATE_TABLE);
+		create.close();
+		mReplace = mDb.prepareStatement("INSERT OR REPLACE INTO Pictures (UUID,SRC_URL,TYPE,PATH,REMOTE_DATE,DATE,FILE_SIZE) VALUES (?,?,?,?,?,?,?)");
+
+		// the index loaded at startup
+		for (int i=0; i<itemCount; i+=batchSize) {
+			writeJournal();
+			writeDatabase();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		mJournal.close();
+		mReplace.close();
+		mDb.close();
+		for (File file : mFolder.listFiles())
+			file.delete();
+		mFolder.delete();
+	}
+
+	@Benchmark
+	public void writeJournal() throws IOException {
+		for (int i=0; i<batchSize; ++i) {
+			final int index = mNext++ % itemCount;
+			mJournal.writeItem(mKeys[index], mItems[index]);
+		}
+		mJournal.flush();
+		if (mJournal.needsRebuild(itemCount)) {
+			HashMap<CacheKey, CacheItem> live = new HashMap<CacheKey, CacheItem>();
+			for (int i=0; i<itemCount; ++i)
+				live.put(mKeys[i], mItems[i]);
+			mJournal.rebuild(live.entrySet()); // as PictureCache does, part of the cost of the journal
+		}
+	}
+
+	@Benchmark
+	public void writeDatabase() throws SQLException {
+		if (batchSize > 1)
+			mDb.setAutoCommit(false);
+		for (int i=0; i<batchSize; ++i) {
+			final int index = mNext++ % itemCount;
+			final CacheItem item = mItems[index];
+			mReplace.setString(1, mKeys[index].serialize());
+			mReplace.setString(2, item.URL);
+			mReplace.setInt(3, item.lifeSpan.toStorage());
+			mReplace.setString(4, item.getStoredPath());
+			mReplace.setLong(5, item.remoteDate);
+			mReplace.setLong(6, item.lastAccessDate);
+			mReplace.setLong(7, item.fileSize);
+			mReplace.executeUpdate();
+		}
+		if (batchSize > 1) {
+			mDb.commit();
+			mDb.setAutoCommit(true);
+		}
+	}
+
+	@Benchmark
+	public HashMap<CacheKey, CacheItem> loadJournal() throws IOException {
+		IndexJournal journal = new IndexJournal(mJournalFile);
+		HashMap<CacheKey, CacheItem> items = new HashMap<CacheKey, CacheItem>();
+		journal.read(items);
+		return items;
+	}
+
+	@Benchmark
+	public HashMap<CacheKey, CacheItem> loadDatabase() throws SQLException {
+		HashMap<CacheKey, CacheItem> items = new HashMap<CacheKey, CacheItem>();
+		Statement query = mDb.createStatement();
+		try {
+			ResultSet c = query.executeQuery("SELECT * FROM Pictures");
+			final int indexUUID = c.findColumn("UUID");
+			final int indexURL = c.findColumn("SRC_URL");
+			final int indexType = c.findColumn("TYPE");
+			final int indexPath = c.findColumn("PATH");
+			final int indexRemoteDate = c.findColumn("REMOTE_DATE");
+			final int indexDate = c.findColumn("DATE");
+			final int indexSize = c.findColumn("FILE_SIZE");
+			while (c.next()) {
+				CacheItem item = CacheItem.fromStoredPath(c.getString(indexPath), c.getString(indexURL));
+				item.lifeSpan = LifeSpan.fromStorage(c.getInt(indexType));
+				item.remoteDate = c.getLong(indexRemoteDate);
+				item.lastAccessDate = c.getLong(indexDate);
+				item.fileSize = c.getLong(indexSize);
+				items.put(CacheKey.unserialize(c.getString(indexUUID)), item);
+			}
+		} finally {
+			query.close();
+		}
+		return items;
+	}
+}
@@ -0,0 +1,85 @@
+package com.levelup.picturecache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * reading all the keys of an index at startup, from the strings of the SQLite index and from the binary form of the journal
+ * <p>
+ * {@link #splitStrings(Blackhole)} is the String.split() parser used before, it stops before creating the key as the constructor it called needs Android
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyParsingBenchmark {
+
+	@Param({"10000", "100000"})
+	int keyCount;
+
+	private String[] mStrings;
+	private byte[] mBinary;
+
+	@Setup
+	public void setUp() throws IOException {
+		mStrings = new String[keyCount];
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int i=0; i<keyCount; ++i) {
+			CacheKey key = CacheKey.newUrlBasedKey("http://pbs.example.com/profile_images/"+i+"/avatar_normal.jpg", 48, i % 3 == 0, StorageType.AUTO, i % 5 == 0 ? "_round" : null);
+			mStrings[i] = key.serialize();
+			key.writeTo(out);
+		}
+		out.close();
+		mBinary = bytes.toByteArray();
+	}
+
+	@Benchmark
+	public void splitStrings(Blackhole blackhole) {
+		for (String string : mStrings) {
+			String[] parts = string.split(":");
+			String uuid = parts[0].replace('/', '_').replace(':', '_').replace('\'', '_');
+			int dimension = Integer.valueOf(parts[1]);
+			boolean widthBased = parts[2].equals("w");
+			StorageType extensionMode = StorageType.fromStorage(Integer.valueOf(parts[3]));
+			String variantString = parts.length > 4 ? parts[4] : null;
+			blackhole.consume(uuid);
+			blackhole.consume(dimension);
+			blackhole.consume(widthBased);
+			blackhole.consume(extensionMode);
+			blackhole.consume(variantString);
+		}
+	}
+
+	@Benchmark
+	public void unserializeStrings(Blackhole blackhole) {
+		for (String string : mStrings)
+			blackhole.consume(CacheKey.unserialize(string));
+	}
+
+	@Benchmark
+	public void readBinary(Blackhole blackhole) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(mBinary));
+		for (int i=0; i<keyCount; ++i)
+			blackhole.consume(CacheKey.readFrom(in));
+	}
+}
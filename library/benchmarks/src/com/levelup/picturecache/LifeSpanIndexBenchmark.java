@@ -0,0 +1,74 @@
+package com.levelup.picturecache;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * cost of finding the next item to evict, with the {@link LifeSpanIndex} and with the scan of the whole index it replaced
+ * <p>
+ * each operation finds the oldest item and marks it as accessed, so the index keeps the same size and order between operations
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LifeSpanIndexBenchmark {
+
+	@Param({"10000", "100000"})
+	int itemCount;
+
+	private final HashMap<CacheKey, CacheItem> mItems = new HashMap<CacheKey, CacheItem>();
+	private final LifeSpanIndex mIndex = new LifeSpanIndex();
+	private long mClock;
+
+	@Setup
+	public void setUp() {
+		final LifeSpan[] lifeSpans = LifeSpan.values();
+		for (int i=0; i<itemCount; ++i) {
+			final String url = "http://example.com/picture/"+i;
+			CacheItem item = new CacheItem(new File("/cache/"+i), url);
+			item.lifeSpan = lifeSpans[i % lifeSpans.length];
+			item.lastAccessDate = ++mClock;
+			item.fileSize = 20000;
+			CacheKey key = CacheKey.newUrlBasedKey(url, 100, true, StorageType.AUTO, null);
+			mItems.put(key, item);
+			mIndex.add(key, item);
+		}
+	}
+
+	@Benchmark
+	public CacheItem lruIndex() {
+		CacheItem oldest = mIndex.getOldest(LifeSpan.SHORTTERM);
+		oldest.lastAccessDate = ++mClock;
+		mIndex.touch(oldest);
+		return oldest;
+	}
+
+	@Benchmark
+	public CacheItem fullScan() {
+		Entry<CacheKey, CacheItem> oldest = null;
+		for (Entry<CacheKey, CacheItem> entry : mItems.entrySet()) {
+			final CacheItem item = entry.getValue();
+			if (LifeSpan.SHORTTERM==item.lifeSpan && (oldest==null || oldest.getValue().lastAccessDate > item.lastAccessDate))
+				oldest = entry;
+		}
+		oldest.getValue().lastAccessDate = ++mClock;
+		return oldest.getValue();
+	}
+}
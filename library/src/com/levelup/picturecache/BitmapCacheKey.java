@@ -0,0 +1,51 @@
+package com.levelup.picturecache;
+
+/**
+ * key of a decoded picture in the {@link BitmapMemoryCache}, the stored {@link CacheKey}, the URL it was loaded from and the display transform
+ * <p>
+ * the hash doesn't use the URL, it's only compared when the rest matches
+ */
+final class BitmapCacheKey {
+	final CacheKey key;
+	final String url;
+	final String displayVariant;
+	private final int hashCode;
+
+	BitmapCacheKey(CacheKey key, String url, String displayVariant) {
+		this.key = key;
+		this.url = url;
+		this.displayVariant = displayVariant;
+		this.hashCode = hash(key, displayVariant);
+	}
+
+	static int hash(CacheKey key, String displayVariant) {
+		return key.hashCode() * 31 + (displayVariant==null ? 0 : displayVariant.hashCode());
+	}
+
+	/**
+	 * compare with the components of a key without having to create one
+	 * @param hash the value of {@link #hash(CacheKey, String)} for these components
+	 */
+	boolean matches(int hash, CacheKey key, String url, String displayVariant) {
+		return hashCode == hash && this.key.equals(key) && this.url.equals(url)
+				&& (displayVariant==null ? this.displayVariant==null : displayVariant.equals(this.displayVariant));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof BitmapCacheKey)) return false;
+		BitmapCacheKey k = (BitmapCacheKey) o;
+		return k.matches(hashCode, key, url, displayVariant);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return key+":"+url+(displayVariant==null ? "" : displayVariant);
+	}
+}
@@ -13,6 +13,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
+import java.nio.MappedByteBuffer;
 import java.util.HashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -112,6 +113,7 @@ class BitmapDownloader extends Thread {
 		final HashMap<CacheVariant,Drawable> targetNewBitmaps = new HashMap<CacheVariant, Drawable>();
 		File downloadToFile = null;
 		boolean downloaded = false;
+		MappedByteBuffer downloadedData = null; // mapped once for the dimensions and the decoding of each target
 		try {
 			setPriority(Thread.MIN_PRIORITY);
 			BitmapFactory.Options tmpFileOptions = new BitmapFactory.Options();
@@ -121,8 +123,10 @@ class BitmapDownloader extends Thread {
 				DownloadTarget target = mTargets.get(i);
 				checkAbort();
 
-				target.fileInCache = mCache.getCachedFile(target.mKey);
-				boolean bitmapWasInCache = target.fileInCache!=null;
+				mCache.migrateLegacyUrlKey(target.mKey, mURL);
+				CacheItem cached = mCache.getCachedItem(target.mKey, mURL);
+				target.fileInCache = cached==null ? null : cached.path;
+				boolean bitmapWasInCache = cached!=null;
 				if (!bitmapWasInCache) {
 					// we can't use the older version, download the file and create the stored file again
 					if (target.fileInCache!=null)
@@ -134,9 +138,10 @@ class BitmapDownloader extends Thread {
 
 				if (target.fileInCache!=null) {
 					Drawable displayDrawable;
-					if (bitmapWasInCache)
-						displayDrawable = new BitmapDrawable(mCache.getContext().getResources(), target.fileInCache.getAbsolutePath());
-					else
+					if (bitmapWasInCache) {
+						Bitmap cachedBitmap = mCache.decodeItem(target.mKey, cached, null);
+						displayDrawable = cachedBitmap==null ? null : mCache.createDrawable(cachedBitmap);
+					} else
 						displayDrawable = null;
 
 					if (displayDrawable==null) {
@@ -156,10 +161,18 @@ class BitmapDownloader extends Thread {
 						if (displayDrawable==null && downloadToFile!=null && !downloaded) {
 							try {
 								downloaded = downloadInTempFile(downloadToFile);
+								if (downloaded) {
+									try {
+										downloadedData = MappedFile.map(downloadToFile);
+									} catch (IOException e) {
+										LogManager.logger.w(PictureCache.LOG_TAG, this+" can't read the downloaded "+downloadToFile, e);
+										downloaded = false;
+									}
+								}
 								if (downloaded) {
 									// we need the dimensions of the downloaded file
 									tmpFileOptions.inJustDecodeBounds = true;
-									BitmapFactory.decodeFile(downloadToFile.getAbsolutePath(), tmpFileOptions);
+									MappedFile.decode(downloadedData, tmpFileOptions);
 									if (DEBUG_BITMAP_DOWNLOADER && tmpFileOptions.outHeight <= 0) LogManager.logger.i(PictureCache.LOG_TAG, this+" failed to get dimensions from "+downloadToFile);
 								}
 							} finally {
@@ -170,21 +183,25 @@ class BitmapDownloader extends Thread {
 						}
 
 						if (downloaded) {
-							Bitmap bitmap = BitmapFactory.decodeFile(downloadToFile.getAbsolutePath(), getOutputOptions(tmpFileOptions.outWidth, tmpFileOptions.outHeight, target.mKey));
+							Bitmap bitmap = MappedFile.decode(downloadedData, getOutputOptions(tmpFileOptions.outWidth, tmpFileOptions.outHeight, target.mKey));
 							if (bitmap!=null) {
 								int finalHeight = target.mKey.getBitmapHeight(bitmap.getWidth(), bitmap.getHeight());
 								if (finalHeight!=0 && finalHeight != bitmap.getHeight()) {
 									//LogManager.logger.v(" source size:"+bmp.getWidth()+"x"+bmp.getHeight());
 									Bitmap newBmp = Bitmap.createScaledBitmap(bitmap, (bitmap.getWidth() * finalHeight) / bitmap.getHeight(), finalHeight, true);
-									/*if (bitmap!=newBmp)
-										bitmap.recycle();*/
+									if (bitmap!=newBmp)
+										mCache.releaseBitmap(bitmap);
 									bitmap = newBmp;
 								}
 
-								if (target.loadHandler.getStorageTransform()!=null)
-									bitmap = target.loadHandler.getStorageTransform().transformBitmapForStorage(bitmap);
+								if (target.loadHandler.getStorageTransform()!=null) {
+									Bitmap storedBmp = target.loadHandler.getStorageTransform().transformBitmapForStorage(bitmap);
+									if (bitmap!=storedBmp)
+										mCache.releaseBitmap(bitmap);
+									bitmap = storedBmp;
+								}
 								
-								displayDrawable = new BitmapDrawable(mCache.getContext().getResources(), bitmap);
+								displayDrawable = mCache.createDrawable(bitmap);
 							}
 						}
 					}
@@ -213,6 +230,9 @@ class BitmapDownloader extends Thread {
 		} catch (Throwable e) {
 			LogManager.logger.e(PictureCache.LOG_TAG, "exception on "+mURL, e);
 		} finally {
+			// the job holds its pictures until they are stored, even if the views release them before
+			for (Drawable drawable : targetBitmaps.values())
+				RefCountedBitmapDrawable.acquire(drawable);
 			try {
 				// tell the monitor we are done
 				//LogManager.logger.i(PictureCache.TAG, "finished download thread for " + mURL + " bmp:"+bmp + " rbmp:"+rbmp);
@@ -222,6 +242,7 @@ class BitmapDownloader extends Thread {
 					if (DEBUG_BITMAP_DOWNLOADER) LogManager.logger.e(PictureCache.LOG_TAG, this+" finished loading targets:"+mTargets+" bitmaps:"+targetBitmaps);
 
 					mAborting = true; // after this point new targets are not OK for this job
+					final HashMap<BitmapCacheKey, BitmapDrawable> transformed = new HashMap<BitmapCacheKey, BitmapDrawable>();
 					for (DownloadTarget target : mTargets) {
 						//LogManager.logger.i(PictureCache.TAG, false, "ViewUpdate "+mURL);
 						PictureLoaderHandler j = target.loadHandler;
@@ -231,30 +252,43 @@ class BitmapDownloader extends Thread {
 						if (DEBUG_BITMAP_DOWNLOADER) LogManager.logger.v(PictureCache.LOG_TAG, this+"  targets:"+mTargets+" bitmaps:"+targetBitmaps);
 						//LogManager.logger.i(PictureCache.TAG, "display "+mURL+" in "+j+" abort:"+abortRequested);
 						if (drawable!=null) {
-							Bitmap bitmap = ViewLoader.drawableToBitmap(drawable);
-							if (j.getDisplayTransform()!=null)
-								bitmap = j.getDisplayTransform().transformBitmap(bitmap);
+							// targets with the same display transform of the same picture share the result
+							final BitmapCacheKey transformKey = j.getDisplayTransform()==null ? null : new BitmapCacheKey(target.mKey, mURL, j.getDisplayVariant());
+							BitmapDrawable cacheableBmp = transformKey==null ? null : transformed.get(transformKey);
+							final Bitmap bitmap;
+							if (cacheableBmp!=null)
+								bitmap = cacheableBmp.getBitmap();
+							else {
+								Bitmap source = ViewLoader.drawableToBitmap(drawable);
+								bitmap = j.getDisplayTransform()!=null ? mCache.transformForDisplay(j.getDisplayTransform(), source) : source;
 
-							Drawable cacheableBmp = null;
-							if (mCache.mBitmapCache != null && target.loadHandler.canKeepBitmapInMemory(bitmap))
-								cacheableBmp = mCache.mBitmapCache.put(PictureCache.keyToBitmapCacheKey(target.mKey, mURL, j), bitmap);
-
-							if (cacheableBmp == null) {
 								if (drawable instanceof BitmapDrawable && ((BitmapDrawable) drawable).getBitmap()==bitmap)
-									cacheableBmp = drawable;
+									cacheableBmp = (BitmapDrawable) drawable;
 								else
-									cacheableBmp = new BitmapDrawable(mCache.getContext().getResources(), bitmap);
+									cacheableBmp = mCache.createDrawable(bitmap);
+								if (transformKey!=null)
+									transformed.put(transformKey, (BitmapDrawable) RefCountedBitmapDrawable.acquire(cacheableBmp));
+							}
+
+							if (mCache.mMemoryCache != null && j.canKeepBitmapInMemory(bitmap)) {
+								// a transform that returned the source is kept once, as the plain picture
+								final String variant = cacheableBmp==drawable ? null : j.getDisplayVariant();
+								mCache.mMemoryCache.put(target.mKey, mURL, variant, mLifeSpan, cacheableBmp);
 							}
-							j.drawBitmap(cacheableBmp, mURL, mCookie, mCache.postHandler, mCache.mBitmapCache);
+							j.drawBitmap(RefCountedBitmapDrawable.acquire(cacheableBmp), mURL, mCookie, mCache.postHandler, mCache.mBitmapCache);
 						} else
 							j.drawDefaultPicture(mURL, mCache.postHandler, mCache.mBitmapCache);
 					}
+					for (BitmapDrawable result : transformed.values())
+						RefCountedBitmapDrawable.release(result);
 					mTargets.clear();
 				}
 
 				if (mMonitor!=null)
 					mMonitor.onJobFinishedWithNewBitmaps(this, targetNewBitmaps);
 			} finally {
+				for (Drawable drawable : targetBitmaps.values())
+					RefCountedBitmapDrawable.release(drawable);
 				if (downloadToFile!=null)
 					downloadToFile.delete();
 			}
@@ -0,0 +1,481 @@
+package com.levelup.picturecache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+
+/**
+ * memory cache of the decoded pictures ready to display, limited by the size in bytes of the Bitmaps
+ * <p>
+ * the entries are found from the components of their {@link BitmapCacheKey} so a hit doesn't allocate anything
+ * <p>
+ * a new picture that would push out others is only kept if it's been asked more often recently than the ones it would replace,
+ * so a scroll through many pictures seen once doesn't remove the ones seen all the time (TinyLFU)
+ * <p>
+ * a picture bigger than {@link #LARGE_BITMAP_RATIO} of the cache is only kept once it's been asked again recently,
+ * and never when it's bigger than {@link #MAX_BITMAP_RATIO}, so a few big pictures can't flush the cache
+ * <p>
+ * the pictures pushed out are still held with soft references until the GC needs the memory,
+ * when they are asked again they are put back in the cache
+ * <p>
+ * the cache holds a reference on each {@link RefCountedBitmapDrawable} it keeps, strongly or softly,
+ * and released when it drops them
+ * <p>
+ * the pictures pinned because they're displayed are never pushed out, their size is counted apart from the LRU budget
+ * so a refresh of the views on screen always finds them, up to half the LRU budget in case the views never unpin
+ * <p>
+ * each {@link LifeSpan} has its own LRU list and may have a part of the cache reserved, see {@link LifeSpanQuotas}
+ * <p>
+ * thread safe
+ */
+class BitmapMemoryCache {
+
+	private static class Entry {
+		final BitmapCacheKey key;
+		final BitmapDrawable drawable;
+		final int size;
+		final int lifeSpan; // ordinal of the LifeSpan
+		boolean pinned; // out of the LRU list
+
+		Entry hashNext;
+		Entry lruPrev;
+		Entry lruNext;
+		long lruTick; // when it was put at its place in the list
+
+		Entry(BitmapCacheKey key, BitmapDrawable drawable, int size, int lifeSpan) {
+			this.key = key;
+			this.drawable = drawable;
+			this.size = size;
+			this.lifeSpan = lifeSpan;
+		}
+	}
+
+	/**
+	 * a picture pushed out of the cache, found back from its key until the GC reclaims it
+	 */
+	private static class EvictedEntry extends SoftReference<BitmapDrawable> {
+		final BitmapCacheKey key;
+		final int size;
+		final int lifeSpan;
+
+		EvictedEntry(Entry entry, ReferenceQueue<BitmapDrawable> queue) {
+			super(entry.drawable, queue);
+			this.key = entry.key;
+			this.size = entry.size;
+			this.lifeSpan = entry.lifeSpan;
+		}
+	}
+
+	private final long mMaxSize;
+	private final FrequencySketch mSketch;
+	private final LifeSpanQuotas mQuotas;
+
+	private final HashMap<BitmapCacheKey, EvictedEntry> mEvicted = new HashMap<BitmapCacheKey, EvictedEntry>();
+	private final ReferenceQueue<BitmapDrawable> mReclaimed = new ReferenceQueue<BitmapDrawable>();
+
+	private int mHitCount;
+	private int mEvictedHitCount;
+	private int mMissCount;
+
+	private Entry[] mTable = new Entry[64]; // always a power of 2
+	private int mCount;
+	private long mSize; // of the entries in the LRU lists
+	private long mPinnedSize;
+	private long mTick;
+	// LRU list of each LifeSpan
+	private final Entry[] mHeads = new Entry[LifeSpan.values().length]; // least recently used
+	private final Entry[] mTails = new Entry[LifeSpan.values().length]; // most recently used
+	private final long[] mSizes = new long[LifeSpan.values().length];
+
+	/**
+	 * @param maxSize maximum size in bytes of all the Bitmaps kept
+	 * @param lifeSpanShares fraction of the cache reserved to each {@link LifeSpan} by ordinal, may be null
+	 */
+	BitmapMemoryCache(long maxSize, float[] lifeSpanShares) {
+		this.mMaxSize = maxSize;
+		this.mSketch = new FrequencySketch((int) Math.min(maxSize / AVERAGE_BITMAP_SIZE, Integer.MAX_VALUE));
+		this.mQuotas = new LifeSpanQuotas(lifeSpanShares, maxSize);
+	}
+
+	/** rough size of a Bitmap in memory to estimate how many the cache will hold */
+	private static final int AVERAGE_BITMAP_SIZE = 32 * 1024;
+	/** fraction of the cache size above which a Bitmap is only kept when it's used again */
+	private static final int LARGE_BITMAP_RATIO = 8;
+	/** fraction of the cache size above which a Bitmap is never kept */
+	private static final int MAX_BITMAP_RATIO = 2;
+	/** how many times a large Bitmap must have been asked recently to be kept */
+	private static final int LARGE_BITMAP_MIN_FREQUENCY = 2;
+	/** fraction of the cache size the pinned Bitmaps can use, the others stay in the LRU lists, so pins that are never undone can't take it all */
+	private static final int MAX_PINNED_RATIO = 2;
+
+	static int getBitmapSize(Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	/**
+	 * @return the drawable stored for these key components, null if there is none,
+	 * the caller gets a reference on it to release with {@link RefCountedBitmapDrawable#release(android.graphics.drawable.Drawable)}
+	 */
+	synchronized BitmapDrawable get(CacheKey key, String url, String displayVariant) {
+		final int hash = BitmapCacheKey.hash(key, displayVariant);
+		mSketch.increment(hash); // hit or miss, it's been asked
+		Entry entry = find(hash, key, url, displayVariant);
+		if (entry != null) {
+			++mHitCount;
+			if (!entry.pinned) {
+				unlink(entry);
+				link(entry);
+			}
+			RefCountedBitmapDrawable.acquire(entry.drawable);
+			return entry.drawable;
+		}
+
+		expungeReclaimed();
+		if (!mEvicted.isEmpty()) {
+			final BitmapCacheKey evictedKey = new BitmapCacheKey(key, url, displayVariant);
+			final EvictedEntry evicted = mEvicted.remove(evictedKey);
+			if (evicted != null) {
+				final BitmapDrawable drawable = evicted.get();
+				if (drawable != null && !drawable.getBitmap().isRecycled()) {
+					++mEvictedHitCount;
+					if (acceptsSize(hash, evicted.size) && admit(hash, evicted.size, evicted.lifeSpan)) {
+						insert(evictedKey, hash, drawable, evicted.size, evicted.lifeSpan); // with the reference held by the soft entry
+						trimToSize(mMaxSize, true);
+					} else
+						mEvicted.put(evictedKey, evicted); // too big or not asked often enough to go back in the cache
+					RefCountedBitmapDrawable.acquire(drawable);
+					return drawable;
+				}
+			}
+		}
+		++mMissCount;
+		return null;
+	}
+
+	/**
+	 * keep the drawable in memory, replacing the previous one for the same key, the least recently used ones are removed to make room
+	 * @param lifeSpan the {@link LifeSpan} of the picture, for the quotas
+	 * @param drawable drawable with the Bitmap to keep in memory
+	 * @return false if the Bitmap is too big to be kept or not asked often enough to replace the ones it would push out
+	 */
+	synchronized boolean put(CacheKey key, String url, String displayVariant, LifeSpan lifeSpan, BitmapDrawable drawable) {
+		final int size = getBitmapSize(drawable.getBitmap());
+		if (size > mMaxSize / MAX_BITMAP_RATIO)
+			return false;
+
+		final int hash = BitmapCacheKey.hash(key, displayVariant);
+		expungeReclaimed();
+		final BitmapCacheKey entryKey = new BitmapCacheKey(key, url, displayVariant);
+		final int span = LifeSpanQuotas.indexOf(lifeSpan);
+		RefCountedBitmapDrawable.acquire(drawable);
+		release(mEvicted.remove(entryKey));
+		Entry old = find(hash, key, url, displayVariant);
+		if (old != null) {
+			removeEntry(old);
+			release(old);
+		} else if (!acceptsSize(hash, size) || !admit(hash, size, span)) {
+			mEvicted.put(entryKey, new EvictedEntry(new Entry(entryKey, drawable, size, span), mReclaimed));
+			return false;
+		}
+
+		insert(entryKey, hash, drawable, size, span);
+		trimToSize(mMaxSize, true);
+		return true;
+	}
+
+	synchronized void evictAll() {
+		for (int slot = 0; slot < mTable.length; ++slot) {
+			Entry entry;
+			while ((entry = mTable[slot]) != null) {
+				removeEntry(entry);
+				release(entry);
+			}
+		}
+		evictSoftReferences();
+	}
+
+	/**
+	 * remove the least recently used pictures until they use at most that size, they are not kept with soft references,
+	 * the pinned pictures are kept
+	 * @return the number of bytes freed
+	 */
+	synchronized long trimToSize(long maxSize) {
+		final long initialSize = mSize;
+		trimToSize(maxSize, false);
+		return initialSize - mSize;
+	}
+
+	/**
+	 * drop the pictures pushed out of the cache that are still held with soft references
+	 * @return the number of pictures dropped
+	 */
+	synchronized int evictSoftReferences() {
+		final int count = mEvicted.size();
+		for (EvictedEntry evicted : mEvicted.values())
+			release(evicted);
+		mEvicted.clear();
+		return count;
+	}
+
+	/**
+	 * @return the size in bytes of the pictures that can be pushed out, not counting the pinned ones
+	 */
+	synchronized long getSize() {
+		return mSize;
+	}
+
+	synchronized long getPinnedSize() {
+		return mPinnedSize;
+	}
+
+	/**
+	 * move the entry of a drawable out of the LRU list when it's pinned, back in it as the most recently used when it's unpinned
+	 */
+	synchronized void onPinChanged(RefCountedBitmapDrawable drawable) {
+		final BitmapCacheKey key = drawable.mCacheKey;
+		if (key == null)
+			return;
+		Entry entry = find(key.hashCode(), key.key, key.url, key.displayVariant);
+		if (entry == null || entry.drawable != drawable)
+			return;
+
+		final boolean pinned = drawable.isPinned() && canPin(entry.size);
+		if (entry.pinned == pinned)
+			return;
+		if (pinned) {
+			unlink(entry);
+			entry.pinned = true;
+			mPinnedSize += entry.size;
+		} else {
+			entry.pinned = false;
+			mPinnedSize -= entry.size;
+			link(entry);
+			trimToSize(mMaxSize, true);
+		}
+	}
+
+	/**
+	 * @return the number of lookups found in the cache
+	 */
+	synchronized int getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * @return the number of lookups found in the pictures pushed out of the cache and not reclaimed yet
+	 */
+	synchronized int getEvictedHitCount() {
+		return mEvictedHitCount;
+	}
+
+	synchronized int getMissCount() {
+		return mMissCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BitmapMemoryCache:"+mSize+"/"+mMaxSize+" pinned:"+mPinnedSize+" hits:"+mHitCount+" evictedHits:"+mEvictedHitCount+" misses:"+mMissCount;
+	}
+
+	private void insert(BitmapCacheKey key, int hash, BitmapDrawable drawable, int size, int lifeSpan) {
+		if (mCount + 1 > (mTable.length * 3) / 4)
+			resize();
+
+		Entry entry = new Entry(key, drawable, size, lifeSpan);
+		final int slot = indexFor(hash, mTable.length);
+		entry.hashNext = mTable[slot];
+		mTable[slot] = entry;
+		++mCount;
+		if (drawable instanceof RefCountedBitmapDrawable) {
+			RefCountedBitmapDrawable counted = (RefCountedBitmapDrawable) drawable;
+			counted.mCache = this;
+			counted.mCacheKey = key;
+			entry.pinned = counted.isPinned() && canPin(size);
+		}
+		if (entry.pinned)
+			mPinnedSize += size;
+		else
+			link(entry);
+	}
+
+	/**
+	 * drop the pushed out pictures the GC reclaimed
+	 */
+	private void expungeReclaimed() {
+		EvictedEntry reclaimed;
+		while ((reclaimed = (EvictedEntry) mReclaimed.poll()) != null) {
+			if (mEvicted.get(reclaimed.key) == reclaimed)
+				mEvicted.remove(reclaimed.key);
+		}
+	}
+
+	/**
+	 * @return true if the new entry is asked more often than all the least recently used entries it would push out
+	 */
+	private boolean admit(int hash, int size, int lifeSpan) {
+		long needed = mSize + size - mMaxSize;
+		if (needed <= 0)
+			return true;
+		final int frequency = mSketch.frequency(hash);
+		// go through the entries in the order they would be pushed out
+		final Entry[] next = mHeads.clone();
+		final long[] sizes = mSizes.clone();
+		sizes[lifeSpan] += size;
+		Entry victim;
+		while (needed > 0 && (victim = nextVictim(next, sizes)) != null) {
+			if (mSketch.frequency(victim.key.hashCode()) >= frequency)
+				return false;
+			needed -= victim.size;
+			sizes[victim.lifeSpan] -= victim.size;
+			next[victim.lifeSpan] = victim.lruNext;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the Bitmap is small enough compared to the cache size, or used often enough for its size
+	 */
+	private boolean acceptsSize(int hash, int size) {
+		if (size > mMaxSize / MAX_BITMAP_RATIO)
+			return false;
+		return size <= mMaxSize / LARGE_BITMAP_RATIO || mSketch.frequency(hash) >= LARGE_BITMAP_MIN_FREQUENCY;
+	}
+
+	/**
+	 * @param heads the least recently used entry of each {@link LifeSpan}
+	 * @param sizes the size used by each {@link LifeSpan}
+	 * @return the least recently used of the {@link LifeSpan} over their quota, or of all if none is over, null if there are no entries
+	 */
+	private Entry nextVictim(Entry[] heads, long[] sizes) {
+		Entry oldest = null;
+		Entry oldestOverQuota = null;
+		for (int i=0; i<heads.length; ++i) {
+			final Entry head = heads[i];
+			if (head == null)
+				continue;
+			if (oldest == null || head.lruTick < oldest.lruTick)
+				oldest = head;
+			if (mQuotas.isOverQuota(i, sizes[i]) && (oldestOverQuota == null || head.lruTick < oldestOverQuota.lruTick))
+				oldestOverQuota = head;
+		}
+		return oldestOverQuota != null ? oldestOverQuota : oldest;
+	}
+
+	/**
+	 * @param keepEvicted whether the pictures removed are kept with soft references
+	 */
+	private void trimToSize(long maxSize, boolean keepEvicted) {
+		Entry evicted;
+		while (mSize > maxSize && (evicted = nextVictim(mHeads, mSizes)) != null) {
+			removeEntry(evicted);
+			if (keepEvicted)
+				mEvicted.put(evicted.key, new EvictedEntry(evicted, mReclaimed));
+			else
+				release(evicted);
+		}
+	}
+
+	private boolean canPin(int size) {
+		return mPinnedSize + size <= mMaxSize / MAX_PINNED_RATIO;
+	}
+
+	/**
+	 * release the reference held by an entry removed from the cache
+	 */
+	private void release(Entry entry) {
+		if (entry.drawable instanceof RefCountedBitmapDrawable) {
+			RefCountedBitmapDrawable counted = (RefCountedBitmapDrawable) entry.drawable;
+			if (counted.mCacheKey == entry.key) {
+				counted.mCache = null;
+				counted.mCacheKey = null;
+			}
+		}
+		RefCountedBitmapDrawable.release(entry.drawable);
+	}
+
+	/**
+	 * release the reference held by a soft entry if its drawable was not reclaimed
+	 */
+	private static void release(EvictedEntry evicted) {
+		if (evicted != null)
+			RefCountedBitmapDrawable.release(evicted.get());
+	}
+
+	private Entry find(int hash, CacheKey key, String url, String displayVariant) {
+		for (Entry entry = mTable[indexFor(hash, mTable.length)]; entry != null; entry = entry.hashNext) {
+			if (entry.key.matches(hash, key, url, displayVariant))
+				return entry;
+		}
+		return null;
+	}
+
+	private void removeEntry(Entry entry) {
+		final int slot = indexFor(entry.key.hashCode(), mTable.length);
+		if (mTable[slot] == entry)
+			mTable[slot] = entry.hashNext;
+		else {
+			Entry prev = mTable[slot];
+			while (prev.hashNext != entry)
+				prev = prev.hashNext;
+			prev.hashNext = entry.hashNext;
+		}
+		entry.hashNext = null;
+		--mCount;
+		if (entry.pinned) {
+			entry.pinned = false;
+			mPinnedSize -= entry.size;
+		} else
+			unlink(entry);
+	}
+
+	private void resize() {
+		final Entry[] table = new Entry[mTable.length * 2];
+		for (Entry entry : mTable) {
+			while (entry != null) {
+				Entry next = entry.hashNext;
+				final int slot = indexFor(entry.key.hashCode(), table.length);
+				entry.hashNext = table[slot];
+				table[slot] = entry;
+				entry = next;
+			}
+		}
+		mTable = table;
+	}
+
+	private static int indexFor(int hash, int length) {
+		return (hash ^ (hash >>> 16)) & (length - 1);
+	}
+
+	private void link(Entry entry) {
+		final int span = entry.lifeSpan;
+		entry.lruTick = ++mTick;
+		entry.lruNext = null;
+		entry.lruPrev = mTails[span];
+		if (mTails[span] != null)
+			mTails[span].lruNext = entry;
+		else
+			mHeads[span] = entry;
+		mTails[span] = entry;
+		mSizes[span] += entry.size;
+		mSize += entry.size;
+	}
+
+	private void unlink(Entry entry) {
+		final int span = entry.lifeSpan;
+		if (entry.lruPrev != null)
+			entry.lruPrev.lruNext = entry.lruNext;
+		else
+			mHeads[span] = entry.lruNext;
+		if (entry.lruNext != null)
+			entry.lruNext.lruPrev = entry.lruPrev;
+		else
+			mTails[span] = entry.lruPrev;
+		entry.lruPrev = null;
+		entry.lruNext = null;
+		mSizes[span] -= entry.size;
+		mSize -= entry.size;
+	}
+}
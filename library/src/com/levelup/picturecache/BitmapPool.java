@@ -0,0 +1,156 @@
+package com.levelup.picturecache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import com.levelup.picturecache.transforms.bitmap.BitmapTransformChain;
+
+/**
+ * Bitmaps not used anymore, kept to decode new pictures in their memory rather than allocating new ones
+ * <p>
+ * before API 19 a Bitmap can only be reused for a picture of the same dimensions, which is the common case in lists
+ * of avatars or thumbnails, before API 11 Bitmaps can't be reused at all so they are just recycled
+ * <p>
+ * the {@link BitmapTransformChain} also draw their output in these Bitmaps
+ * <p>
+ * thread safe
+ */
+class BitmapPool implements BitmapTransformChain.BitmapProvider {
+
+	private final long mMaxSize;
+	private final LinkedList<Bitmap> mBitmaps = new LinkedList<Bitmap>(); // the oldest first
+	private long mSize;
+	private int mReuseCount;
+
+	/**
+	 * @param maxSize maximum size in bytes of all the Bitmaps kept
+	 */
+	BitmapPool(long maxSize) {
+		this.mMaxSize = maxSize;
+	}
+
+	/**
+	 * give a Bitmap that is not used anymore, it's recycled if it can't be kept
+	 */
+	void put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled())
+			return;
+
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && bitmap.isMutable() && bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+			final int size = BitmapMemoryCache.getBitmapSize(bitmap);
+			if (size <= mMaxSize) {
+				synchronized (this) {
+					mBitmaps.addLast(bitmap);
+					mSize += size;
+					while (mSize > mMaxSize)
+						recycle(mBitmaps.removeFirst());
+				}
+				return;
+			}
+		}
+		bitmap.recycle();
+	}
+
+	/**
+	 * decode a picture in the memory of a Bitmap of the pool with the same dimensions if there is one,
+	 * the Bitmap returned is mutable so it can be reused in turn
+	 * @return the decoded Bitmap or null if it could not be decoded
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	Bitmap decode(ByteBuffer data) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		Bitmap reusable = null;
+		if (!isEmpty()) {
+			options.inJustDecodeBounds = true;
+			MappedFile.decode(data, options);
+			options.inJustDecodeBounds = false;
+			reusable = take(options.outWidth, options.outHeight);
+		}
+
+		options.inMutable = true;
+		if (reusable != null) {
+			options.inBitmap = reusable;
+			try {
+				Bitmap bitmap = MappedFile.decode(data, options);
+				if (bitmap != null) {
+					synchronized (this) {
+						++mReuseCount;
+					}
+					return bitmap;
+				}
+			} catch (IllegalArgumentException e) {
+				// the picture can't be decoded in that Bitmap
+			}
+			options.inBitmap = null;
+			reusable.recycle();
+		}
+		return MappedFile.decode(data, options);
+	}
+
+	@Override
+	public Bitmap obtain(int width, int height) {
+		Bitmap bitmap = take(width, height);
+		if (bitmap == null)
+			return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		synchronized (this) {
+			++mReuseCount;
+		}
+		bitmap.eraseColor(0); // transparent
+		return bitmap;
+	}
+
+	@Override
+	public void release(Bitmap bitmap) {
+		put(bitmap);
+	}
+
+	/**
+	 * recycle all the Bitmaps kept
+	 * @return the number of bytes freed
+	 */
+	synchronized long clear() {
+		final long freed = mSize;
+		while (!mBitmaps.isEmpty())
+			recycle(mBitmaps.removeFirst());
+		return freed;
+	}
+
+	synchronized int getReuseCount() {
+		return mReuseCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BitmapPool:"+mSize+"/"+mMaxSize+" count:"+mBitmaps.size()+" reused:"+mReuseCount;
+	}
+
+	private synchronized boolean isEmpty() {
+		return mBitmaps.isEmpty();
+	}
+
+	/**
+	 * @return a Bitmap of that size removed from the pool, null if there is none
+	 */
+	private synchronized Bitmap take(int width, int height) {
+		for (Iterator<Bitmap> it = mBitmaps.iterator(); it.hasNext(); ) {
+			Bitmap bitmap = it.next();
+			if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+				it.remove();
+				mSize -= BitmapMemoryCache.getBitmapSize(bitmap);
+				return bitmap;
+			}
+		}
+		return null;
+	}
+
+	private void recycle(Bitmap bitmap) {
+		mSize -= BitmapMemoryCache.getBitmapSize(bitmap);
+		bitmap.recycle();
+	}
+}
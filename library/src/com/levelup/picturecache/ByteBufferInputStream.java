@@ -0,0 +1,63 @@
+package com.levelup.picturecache;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link InputStream} reading the remaining bytes of a {@link ByteBuffer}, to decode pictures from a mapped file without copying them
+ */
+class ByteBufferInputStream extends InputStream {
+
+	private final ByteBuffer mBuffer;
+
+	ByteBufferInputStream(ByteBuffer buffer) {
+		this.mBuffer = buffer;
+	}
+
+	@Override
+	public int read() {
+		if (!mBuffer.hasRemaining())
+			return -1;
+		return mBuffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) {
+		if (length == 0)
+			return 0;
+		if (!mBuffer.hasRemaining())
+			return -1;
+		length = Math.min(length, mBuffer.remaining());
+		mBuffer.get(buffer, offset, length);
+		return length;
+	}
+
+	@Override
+	public long skip(long byteCount) {
+		if (byteCount <= 0)
+			return 0;
+		int skipped = (int) Math.min(byteCount, mBuffer.remaining());
+		mBuffer.position(mBuffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return mBuffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readLimit) {
+		mBuffer.mark();
+	}
+
+	@Override
+	public synchronized void reset() {
+		mBuffer.reset();
+	}
+}
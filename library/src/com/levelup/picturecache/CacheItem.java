@@ -7,6 +7,8 @@ import java.io.File;
 
 
 class CacheItem {
+	private static final char PACKED_OFFSET_SEPARATOR = '#';
+
 	/**
 	 * the path in the cache directory
 	 */
@@ -16,18 +18,33 @@ class CacheItem {
 	 */
 	final String URL;
 	/**
-	 *  the storage life span of URL see {@link LifeSpan}
+	 *  the storage life span of URL see {@link LifeSpan}, changed under the data lock and read without it
 	 */
-	LifeSpan lifeSpan;
+	volatile LifeSpan lifeSpan;
 	/**
-	 * the last logical item date using to the cache item (if applicable)
+	 * the last logical item date using to the cache item (if applicable), changed under the data lock and read without it
 	 */
-	long remoteDate;
+	volatile long remoteDate;
 	/**
-	 * the date of last access to the item
+	 * the date of last access to the item, set without locking on each hit
 	 */
-	long lastAccessDate;
-	
+	volatile long lastAccessDate;
+	/**
+	 * the size of the file in bytes, recorded when it's written, -1 when it's not known yet, use {@link LifeSpanIndex#setFileSize(CacheItem, long)} once the item is in the index
+	 */
+	volatile long fileSize;
+	/**
+	 * the position of the picture in the {@link #path} segment when it's packed with others, -1 when it has its own file, see {@link PackedStore}
+	 */
+	long packedOffset = -1;
+
+	// links in the LRU list of the LifeSpanIndex, guarded by the PictureCache data lock
+	CacheKey lruKey;
+	LifeSpan lruLifeSpan;
+	long lruAccessDate; // the lastAccessDate when it was put at its place in the list
+	CacheItem lruPrev;
+	CacheItem lruNext;
+
 	CacheItem(File path, String url) {
 		this.path = path;
 		this.URL = url;
@@ -39,7 +56,39 @@ class CacheItem {
 	}
 	
 	long getFileSize() {
-		return path.length();
+		return fileSize;
+	}
+
+	boolean isPacked() {
+		return packedOffset >= 0;
+	}
+
+	/**
+	 * @return the path stored in the index, with the offset in the segment for packed items
+	 */
+	String getStoredPath() {
+		if (isPacked())
+			return path.getAbsolutePath() + PACKED_OFFSET_SEPARATOR + packedOffset;
+		return path.getAbsolutePath();
+	}
+
+	/**
+	 * @param storedPath the path stored in the index, see {@link #getStoredPath()}
+	 * @param url the image URL used to generate this file
+	 */
+	static CacheItem fromStoredPath(String storedPath, String url) {
+		final int separator = storedPath.lastIndexOf(PACKED_OFFSET_SEPARATOR);
+		if (separator > 0) {
+			try {
+				final long offset = Long.parseLong(storedPath.substring(separator + 1));
+				CacheItem item = new CacheItem(new File(storedPath.substring(0, separator)), url);
+				item.packedOffset = offset;
+				return item;
+			} catch (NumberFormatException e) {
+				// a regular file with that character in its name
+			}
+		}
+		return new CacheItem(new File(storedPath), url);
 	}
 
 	public CacheItem copyWithNewPath(File dst) {
@@ -47,6 +96,20 @@ class CacheItem {
 		copy.lifeSpan = lifeSpan;
 		copy.remoteDate = remoteDate;
 		copy.lastAccessDate = lastAccessDate;
+		copy.fileSize = fileSize;
+		return copy;
+	}
+
+	/**
+	 * @return a copy of the item stored at the same place as the packed one
+	 */
+	CacheItem copyWithPackedLocation(CacheItem packed) {
+		CacheItem copy = new CacheItem(packed.path, URL);
+		copy.lifeSpan = lifeSpan;
+		copy.remoteDate = remoteDate;
+		copy.lastAccessDate = lastAccessDate;
+		copy.fileSize = packed.fileSize;
+		copy.packedOffset = packed.packedOffset;
 		return copy;
 	}
 }
\ No newline at end of file
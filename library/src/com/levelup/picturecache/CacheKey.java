@@ -3,7 +3,9 @@
  */
 package com.levelup.picturecache;
 
-import java.security.MessageDigest;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 
 import android.graphics.Bitmap;
@@ -18,42 +20,111 @@ class CacheKey {
 	private final StorageType extensionMode;
 	private final String variantString;
 	private final int hashCode; // only compute the hascode once for speed efficiency
+	private String serialized; // computed when first needed
 
 	private static class UseUrlBasedConstructor extends RuntimeException {private static final long serialVersionUID = -2231632339742517427L;}
 
+	private static final int INTERN_TABLE_SIZE = 1024; // must be a power of 2
+	/** canonical instances of the keys recently created, a slot is replaced when another key falls in it */
+	private static final CacheKey[] sInterned = new CacheKey[INTERN_TABLE_SIZE];
+
 	static CacheKey newUUIDBasedKey(String uuid, int height, boolean widthBased, StorageType extensionMode, String variantString) throws UseUrlBasedConstructor {
 		if (TextUtils.isEmpty(uuid))
 			throw new UseUrlBasedConstructor();
 
-		uuid = uuid.replace('/', '_').replace(':', '_').replace('\'', '_');
-		return new CacheKey(uuid, height, widthBased, extensionMode, variantString);
+		return intern(uuid, height, widthBased, extensionMode, variantString);
 	}
 
-	static CacheKey newUrlBasedKey(String srcURL, int height, boolean widthBased, StorageType extensionMode, String variantString) throws NoSuchAlgorithmException {
-		try {
-			MessageDigest digest = MessageDigest.getInstance("MD5");
-			byte[] md5 = digest.digest(srcURL.getBytes());
-			String uuid = String.format("%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x", md5[0], md5[1], md5[2], md5[3], 
-					md5[4], md5[5], md5[6], md5[7], md5[8], md5[9], md5[10], md5[11], md5[12], md5[13], md5[14], md5[15]);
+	static CacheKey newUrlBasedKey(String srcURL, int height, boolean widthBased, StorageType extensionMode, String variantString) {
+		return intern(UrlHash.getUuid(srcURL), height, widthBased, extensionMode, variantString);
+	}
+
+	/**
+	 * @param srcURL
+	 * @return true if this key was created with {@link #newUrlBasedKey(String, int, boolean, StorageType, String)} for that URL
+	 */
+	boolean isUrlBasedKey(String srcURL) {
+		return UUID.equals(UrlHash.getUuid(srcURL));
+	}
 
-			return new CacheKey(uuid, height, widthBased, extensionMode, variantString);
+	/**
+	 * @param srcURL the URL of this URL based key
+	 * @return the key with the MD5 based UUID the URL based keys used to have
+	 * @throws NoSuchAlgorithmException
+	 */
+	CacheKey copyWithLegacyUrlUuid(String srcURL) throws NoSuchAlgorithmException {
+		try {
+			return intern(UrlHash.getLegacyUuid(srcURL), dimension, widthBased, extensionMode, variantString);
 		} catch (NoSuchAlgorithmException e) {
 			throw new NoSuchAlgorithmException("Failed to get a MD5 for " + srcURL, e);
 		}
 	}
 
 	CacheKey copyWithNewUuid(String newUUID) {
-		String uuid = newUUID.replace('/', '_').replace(':', '_').replace('\'', '_');
-		return new CacheKey(uuid, dimension, widthBased, extensionMode, variantString);
+		return intern(newUUID, dimension, widthBased, extensionMode, variantString);
+	}
+
+	/**
+	 * get the canonical instance of the key with these values, a key is only allocated if it's not in the intern table
+	 * @param rawUuid the UUID before the characters not allowed in file names are replaced
+	 */
+	private static CacheKey intern(String rawUuid, int dimension, boolean widthBased, StorageType extensionMode, String variantString) {
+		final int hashCode = computeHashCode(sanitizedHashCode(rawUuid), dimension, widthBased, variantString);
+		final int slot = (hashCode ^ (hashCode >>> 16)) & (INTERN_TABLE_SIZE - 1);
+		CacheKey key = sInterned[slot]; // racy but the fields are final so a key is either seen complete or not at all
+		if (key != null && key.hashCode == hashCode && key.dimension == dimension && key.widthBased == widthBased && key.extensionMode == extensionMode
+				&& (variantString==null ? key.variantString==null : variantString.equals(key.variantString))
+				&& sanitizedEquals(rawUuid, key.UUID))
+			return key;
+
+		key = new CacheKey(sanitize(rawUuid), dimension, widthBased, extensionMode, variantString, hashCode);
+		sInterned[slot] = key;
+		return key;
+	}
+
+	private static char sanitize(char c) {
+		return (c=='/' || c==':' || c=='\'') ? '_' : c;
+	}
+
+	private static String sanitize(String uuid) {
+		return uuid.replace('/', '_').replace(':', '_').replace('\'', '_');
+	}
+
+	/**
+	 * @return the same value as {@code sanitize(uuid).hashCode()} without allocating anything
+	 */
+	private static int sanitizedHashCode(String uuid) {
+		int hash = 0;
+		for (int i=0, len=uuid.length(); i<len; ++i)
+			hash = 31 * hash + sanitize(uuid.charAt(i));
+		return hash;
+	}
+
+	private static boolean sanitizedEquals(String rawUuid, String uuid) {
+		final int len = rawUuid.length();
+		if (len != uuid.length())
+			return false;
+		for (int i=0; i<len; ++i)
+			if (sanitize(rawUuid.charAt(i)) != uuid.charAt(i))
+				return false;
+		return true;
+	}
+
+	private static int computeHashCode(int uuidHashCode, int dimension, boolean widthBased, String variantString) {
+		return ((((widthBased ? 31 : 0) + (variantString==null ? 0 : variantString.hashCode())) * 31 + dimension) * 31 + uuidHashCode);
 	}
 
 	private CacheKey(String uuid, int height, boolean widthBased, StorageType extensionMode, String variantString) {
+		this(uuid, height, widthBased, extensionMode, variantString, computeHashCode(uuid.hashCode(), height, widthBased, variantString));
+	}
+
+	private CacheKey(String uuid, int height, boolean widthBased, StorageType extensionMode, String variantString, int hashCode) {
 		this.UUID = uuid;
 		this.dimension = height;
 		this.widthBased = widthBased;
 		this.extensionMode = extensionMode;
 		this.variantString = variantString;
-		this.hashCode = ((((widthBased ? 31 : 0) + (variantString==null ? 0 : variantString.hashCode())) * 31 + dimension) * 31 + UUID.hashCode());
+		this.hashCode = hashCode;
 	}
 
 	@Override
@@ -131,17 +202,76 @@ class CacheKey {
 		return isJPEG() ? 92 : 100;
 	}
 
+	/**
+	 * read a key written by {@link #serialize()}, the keys read are not interned
+	 * @throws IllegalArgumentException if the string is not a valid key
+	 */
 	public static CacheKey unserialize(String string) {
-		String[] parts = string.split(":");
-		String uuid = parts[0];
-		int dimension = Integer.valueOf(parts[1]);
-		boolean widthBased = parts[2].equals("w");
-		StorageType extensionMode = StorageType.fromStorage(Integer.valueOf(parts[3]));
-		String variantString = parts.length > 4 ? parts[4] : null;
-		return newUUIDBasedKey(uuid, dimension, widthBased, extensionMode, variantString);
+		final int uuidEnd = string.indexOf(':');
+		final int dimensionEnd = string.indexOf(':', uuidEnd + 1);
+		final int sideEnd = dimensionEnd < 0 ? -1 : string.indexOf(':', dimensionEnd + 1);
+		if (uuidEnd <= 0 || sideEnd < 0)
+			throw new IllegalArgumentException("invalid key "+string);
+		int extensionEnd = string.indexOf(':', sideEnd + 1);
+		if (extensionEnd < 0)
+			extensionEnd = string.length();
+
+		final int dimension = parseInt(string, uuidEnd + 1, dimensionEnd);
+		final boolean widthBased = sideEnd == dimensionEnd + 2 && string.charAt(dimensionEnd + 1) == 'w';
+		final StorageType extensionMode = StorageType.fromStorage(parseInt(string, sideEnd + 1, extensionEnd));
+		final String variantString = extensionEnd + 1 < string.length() ? string.substring(extensionEnd + 1) : null;
+		return new CacheKey(sanitize(string.substring(0, uuidEnd)), dimension, widthBased, extensionMode, variantString);
+	}
+
+	private static int parseInt(String string, int start, int end) {
+		if (start >= end)
+			throw new IllegalArgumentException("missing number in "+string);
+		final boolean negative = string.charAt(start) == '-';
+		int result = 0;
+		for (int i = negative ? start + 1 : start; i < end; ++i) {
+			final int digit = string.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				throw new IllegalArgumentException("invalid number in "+string);
+			result = result * 10 + digit;
+		}
+		return negative ? -result : result;
 	}
 
 	public String serialize() {
-		return UUID+":"+dimension+":"+(widthBased?"w":"h")+":"+extensionMode.toStorage()+":"+(variantString==null?"":variantString);
+		if (serialized == null) {
+			final StringBuilder sb = new StringBuilder(UUID.length() + 16);
+			sb.append(UUID).append(':').append(dimension).append(':').append(widthBased ? 'w' : 'h').append(':').append(extensionMode.toStorage()).append(':');
+			if (variantString != null)
+				sb.append(variantString);
+			serialized = sb.toString();
+		}
+		return serialized;
+	}
+
+	private static final int FLAG_WIDTH_BASED = 1;
+	private static final int FLAG_VARIANT = 2;
+
+	/**
+	 * write the key in a compact binary form, see {@link #readFrom(DataInput)}
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeUTF(UUID);
+		out.writeInt(dimension);
+		out.writeByte((widthBased ? FLAG_WIDTH_BASED : 0) | (variantString != null ? FLAG_VARIANT : 0));
+		out.writeByte(extensionMode.toStorage());
+		if (variantString != null)
+			out.writeUTF(variantString);
+	}
+
+	/**
+	 * read a key written with {@link #writeTo(DataOutput)}, the keys read are not interned
+	 */
+	static CacheKey readFrom(DataInput in) throws IOException {
+		final String uuid = in.readUTF();
+		final int dimension = in.readInt();
+		final int flags = in.readByte();
+		final StorageType extensionMode = StorageType.fromStorage(in.readByte());
+		final String variantString = (flags & FLAG_VARIANT) != 0 ? in.readUTF() : null;
+		return new CacheKey(uuid, dimension, (flags & FLAG_WIDTH_BASED) != 0, extensionMode, variantString);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.levelup.picturecache;
+
+import java.io.File;
+
+/**
+ * two levels of folders in the cache folder so none of them holds too many files, 16 folders of 16 folders
+ * <p>
+ * the folder of a file is picked from the hash of its UUID so all the variants of a picture end up in the same folder
+ * <p>
+ * the files of the older flat layout are moved in their folder when they are accessed, see {@link #isLegacyFile(File)}
+ */
+class CacheShards {
+
+	private static final int FOLDER_COUNT = 16;
+
+	private final File mRoot;
+	private final File[] mFolders = new File[FOLDER_COUNT * FOLDER_COUNT];
+	private final boolean[] mCreated = new boolean[FOLDER_COUNT * FOLDER_COUNT];
+
+	CacheShards(File root) {
+		this.mRoot = root;
+		for (int i=0; i<mFolders.length; ++i) {
+			File parent = new File(root, String.valueOf(Character.forDigit(i / FOLDER_COUNT, 16)));
+			mFolders[i] = new File(parent, String.valueOf(Character.forDigit(i % FOLDER_COUNT, 16)));
+		}
+	}
+
+	private static int getShard(CacheKey key) {
+		int hash = key.getUUID().hashCode();
+		hash ^= hash >>> 16;
+		hash ^= hash >>> 8;
+		return hash & (FOLDER_COUNT * FOLDER_COUNT - 1);
+	}
+
+	/**
+	 * @return the folder of the files of that key, it may not exist yet
+	 */
+	File getFolder(CacheKey key) {
+		return mFolders[getShard(key)];
+	}
+
+	/**
+	 * @return the folder of the files of that key, created if needed
+	 */
+	File prepareFolder(CacheKey key) {
+		final int shard = getShard(key);
+		final File folder = mFolders[shard];
+		synchronized (mCreated) {
+			if (!mCreated[shard])
+				mCreated[shard] = folder.isDirectory() || folder.mkdirs();
+		}
+		return folder;
+	}
+
+	/**
+	 * @return true if the file is directly in the cache folder, as it was before the files were split in folders
+	 */
+	boolean isLegacyFile(File file) {
+		return mRoot.equals(file.getParentFile());
+	}
+
+	/**
+	 * forget the folders created, to call when the cache folder has been deleted
+	 */
+	void reset() {
+		synchronized (mCreated) {
+			for (int i=0; i<mCreated.length; ++i)
+				mCreated[i] = false;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.levelup.picturecache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * memory cache of the encoded bytes of the stored pictures, between the Bitmaps memory cache and the storage
+ * <p>
+ * implementations are thread safe
+ */
+interface EncodedCache {
+
+	/**
+	 * @return the encoded picture of that key, it's not changed by later operations on the cache and must not be modified,
+	 * null if it's not in memory. It must be given to {@link #release(ByteBuffer)} once read.
+	 */
+	ByteBuffer get(CacheKey key);
+
+	/**
+	 * the caller is done reading a picture returned by {@link #get(CacheKey)}, its memory may be reused
+	 */
+	void release(ByteBuffer data);
+
+	boolean contains(CacheKey key);
+
+	/**
+	 * @return true if a picture of that size can be kept
+	 */
+	boolean accepts(int size);
+
+	/**
+	 * keep a copy of the encoded picture, replacing the previous one for the same key, the least recently used ones are removed to make room
+	 * @param lifeSpan the {@link LifeSpan} of the picture, for implementations with quotas
+	 * @param data the encoded picture, read until its limit
+	 */
+	void put(CacheKey key, LifeSpan lifeSpan, ByteBuffer data);
+
+	void remove(CacheKey key);
+
+	void evictAll();
+
+	/**
+	 * remove the least recently used pictures until they use at most that size
+	 * @return the number of bytes freed
+	 */
+	long trimToSize(long maxSize);
+
+	/**
+	 * @return the size in bytes used by the pictures
+	 */
+	long getSize();
+}
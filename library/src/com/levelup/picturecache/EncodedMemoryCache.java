@@ -0,0 +1,161 @@
+package com.levelup.picturecache;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link EncodedCache} in the Java heap, limited by the size in bytes of the pictures
+ * <p>
+ * encoded pictures are many times smaller than the decoded Bitmaps so many more can be kept to be decoded without reading the storage
+ * <p>
+ * each {@link LifeSpan} has its own LRU order and may have a part of the cache reserved, see {@link LifeSpanQuotas}
+ */
+class EncodedMemoryCache implements EncodedCache {
+
+	private static class Entry {
+		final byte[] data;
+		long tick; // last access
+
+		Entry(byte[] data) {
+			this.data = data;
+		}
+	}
+
+	private final long mMaxSize;
+	private final LifeSpanQuotas mQuotas;
+	private final LinkedHashMap<CacheKey, Entry>[] mEntries; // for each LifeSpan, least recently used first
+	private final long[] mSizes;
+	private long mSize;
+	private long mTick;
+
+	/**
+	 * @param maxSize maximum size in bytes of all the encoded pictures kept
+	 * @param lifeSpanShares fraction of the cache reserved to each {@link LifeSpan} by ordinal, may be null
+	 */
+	@SuppressWarnings("unchecked")
+	EncodedMemoryCache(long maxSize, float[] lifeSpanShares) {
+		this.mMaxSize = maxSize;
+		this.mQuotas = new LifeSpanQuotas(lifeSpanShares, maxSize);
+		this.mEntries = new LinkedHashMap[LifeSpan.values().length];
+		for (int i=0; i<mEntries.length; ++i)
+			mEntries[i] = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true);
+		this.mSizes = new long[mEntries.length];
+	}
+
+	@Override
+	public synchronized ByteBuffer get(CacheKey key) {
+		for (LinkedHashMap<CacheKey, Entry> entries : mEntries) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				entry.tick = ++mTick;
+				return ByteBuffer.wrap(entry.data);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void release(ByteBuffer data) {
+		// the entries are immutable arrays dropped by the GC
+	}
+
+	@Override
+	public synchronized boolean contains(CacheKey key) {
+		for (LinkedHashMap<CacheKey, Entry> entries : mEntries) {
+			if (entries.containsKey(key))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean accepts(int size) {
+		return size <= mMaxSize / 4; // a single picture can't push out most of the others
+	}
+
+	@Override
+	public void put(CacheKey key, LifeSpan lifeSpan, ByteBuffer buffer) {
+		if (!accepts(buffer.remaining()))
+			return;
+		final byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		put(key, lifeSpan, data);
+	}
+
+	/**
+	 * keep the encoded picture in memory without copying it
+	 * @param data the encoded picture, must not be modified afterwards
+	 */
+	synchronized void put(CacheKey key, LifeSpan lifeSpan, byte[] data) {
+		if (!accepts(data.length))
+			return;
+		remove(key); // its LifeSpan may have changed
+		final int span = LifeSpanQuotas.indexOf(lifeSpan);
+		final Entry entry = new Entry(data);
+		entry.tick = ++mTick;
+		mEntries[span].put(key, entry);
+		mSizes[span] += data.length;
+		mSize += data.length;
+		trimToSize(mMaxSize);
+	}
+
+	@Override
+	public synchronized void remove(CacheKey key) {
+		for (int i=0; i<mEntries.length; ++i) {
+			Entry old = mEntries[i].remove(key);
+			if (old != null) {
+				mSizes[i] -= old.data.length;
+				mSize -= old.data.length;
+				return;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void evictAll() {
+		for (int i=0; i<mEntries.length; ++i) {
+			mEntries[i].clear();
+			mSizes[i] = 0;
+		}
+		mSize = 0;
+	}
+
+	/**
+	 * remove the least recently used pictures of the {@link LifeSpan} over their quota first
+	 */
+	@Override
+	public synchronized long trimToSize(long maxSize) {
+		final long initialSize = mSize;
+		while (mSize > maxSize) {
+			Map.Entry<CacheKey, Entry> oldest = null;
+			Map.Entry<CacheKey, Entry> oldestOverQuota = null;
+			int oldestSpan = -1, oldestOverQuotaSpan = -1;
+			for (int i=0; i<mEntries.length; ++i) {
+				if (mEntries[i].isEmpty())
+					continue;
+				Map.Entry<CacheKey, Entry> head = mEntries[i].entrySet().iterator().next();
+				if (oldest == null || head.getValue().tick < oldest.getValue().tick) {
+					oldest = head;
+					oldestSpan = i;
+				}
+				if (mQuotas.isOverQuota(i, mSizes[i]) && (oldestOverQuota == null || head.getValue().tick < oldestOverQuota.getValue().tick)) {
+					oldestOverQuota = head;
+					oldestOverQuotaSpan = i;
+				}
+			}
+			if (oldest == null)
+				break;
+			final int span = oldestOverQuota != null ? oldestOverQuotaSpan : oldestSpan;
+			final Entry evicted = mEntries[span].remove((oldestOverQuota != null ? oldestOverQuota : oldest).getKey());
+			mSizes[span] -= evicted.data.length;
+			mSize -= evicted.data.length;
+		}
+		return initialSize - mSize;
+	}
+
+	@Override
+	public synchronized long getSize() {
+		return mSize;
+	}
+}
@@ -0,0 +1,76 @@
+package com.levelup.picturecache;
+
+/**
+ * count-min sketch of how often keys are accessed, with 4 bits counters, used as the admission filter of TinyLFU
+ * <p>
+ * all the counters are halved after a number of increments so old popularity fades away
+ * <p>
+ * not thread safe
+ */
+class FrequencySketch {
+
+	private static final int[] SEEDS = { 0x97cb3127, 0xb4b82e39, 0x6f2c8a1d, 0x1b873593 };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int MAX_COUNT = 15;
+
+	private final long[] mTable; // 16 counters in each long
+	private final int mCounterMask;
+	private final int mSampleSize;
+	private int mAdditions;
+
+	/**
+	 * @param expectedEntries the number of entries the sketch should tell apart
+	 */
+	FrequencySketch(int expectedEntries) {
+		int length = 64;
+		while (length < expectedEntries && length < (1 << 24))
+			length <<= 1;
+		mTable = new long[length];
+		mCounterMask = length * 16 - 1;
+		mSampleSize = 10 * Math.max(expectedEntries, 64);
+	}
+
+	/**
+	 * @return the estimated number of recent accesses to the key with that hash, from 0 to 15
+	 */
+	int frequency(int hash) {
+		int frequency = MAX_COUNT;
+		for (int seed : SEEDS) {
+			final int index = indexOf(hash, seed);
+			final int count = (int) ((mTable[index >>> 4] >>> ((index & 15) << 2)) & 0xF);
+			if (count < frequency)
+				frequency = count;
+		}
+		return frequency;
+	}
+
+	/**
+	 * record an access to the key with that hash
+	 */
+	void increment(int hash) {
+		boolean added = false;
+		for (int seed : SEEDS) {
+			final int index = indexOf(hash, seed);
+			final int word = index >>> 4;
+			final int shift = (index & 15) << 2;
+			if (((mTable[word] >>> shift) & 0xF) < MAX_COUNT) {
+				mTable[word] += 1L << shift;
+				added = true;
+			}
+		}
+		if (added && ++mAdditions == mSampleSize)
+			age();
+	}
+
+	private void age() {
+		for (int i=0; i<mTable.length; ++i)
+			mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+		mAdditions /= 2;
+	}
+
+	private int indexOf(int hash, int seed) {
+		int h = (hash ^ seed) * 0x9E3779B9;
+		h ^= h >>> 16;
+		return h & mCounterMask;
+	}
+}
@@ -0,0 +1,231 @@
+package com.levelup.picturecache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * append-only journal of the {@link PictureCache} index, used instead of the SQLite database with {@link IndexStorage#JOURNAL}
+ * <p>
+ * each change of an item is appended to the file and the last record of a key wins when it's read back.
+ * When there are too many obsolete records the journal is rebuilt from the items in memory, like DiskLruCache does.
+ * <p>
+ * not thread safe, only used on the DB thread
+ */
+class IndexJournal {
+
+	private static final int MAGIC = 0x50434a4c; // PCJL
+	private static final int VERSION = 2;
+
+	private static final byte RECORD_PUT = 1;
+	private static final byte RECORD_REMOVE = 2;
+
+	/** minimum number of obsolete records before the journal is rebuilt */
+	private static final int REBUILD_MIN_REDUNDANT = 2000;
+
+	private final File mFile;
+	private final File mTmpFile;
+	private final File mBackupFile;
+
+	private DataOutputStream mWriter;
+	private int mRecordCount;
+	private boolean mNeedsRebuild;
+
+	IndexJournal(File file) {
+		this.mFile = file;
+		this.mTmpFile = new File(file.getPath() + ".tmp");
+		this.mBackupFile = new File(file.getPath() + ".bkp");
+	}
+
+	/**
+	 * read all the items stored in the journal
+	 * @param items the map to fill with the items found
+	 * @return false if there is no journal yet or it's in another format, it's deleted and will be rebuilt
+	 * @throws IOException if the journal can't be read, it will need to be rebuilt
+	 */
+	boolean read(Map<CacheKey, CacheItem> items) throws IOException {
+		if (mBackupFile.exists()) {
+			// a rebuild was interrupted
+			if (mFile.exists())
+				mBackupFile.delete();
+			else
+				mBackupFile.renameTo(mFile);
+		}
+		if (!mFile.exists())
+			return false;
+
+		mNeedsRebuild = true; // until the whole file is read
+		mRecordCount = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile), 8192));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				// no record is appended to it in the current format if the rebuild fails
+				LogManager.logger.w(PictureCache.LOG_TAG, "unknown journal format in "+mFile);
+				in.close();
+				mFile.delete();
+				return false;
+			}
+
+			int type;
+			while ((type = in.read()) != -1) {
+				final CacheKey key;
+				try {
+					key = CacheKey.readFrom(in);
+				} catch (RuntimeException e) {
+					throw new IOException("bad key in "+mFile+" record "+mRecordCount);
+				}
+				if (type == RECORD_PUT)
+					items.put(key, readItem(in));
+				else if (type == RECORD_REMOVE)
+					items.remove(key);
+				else
+					throw new IOException("unknown record type "+type+" in "+mFile+" record "+mRecordCount);
+				++mRecordCount;
+			}
+			mNeedsRebuild = false;
+		} catch (EOFException e) {
+			LogManager.logger.w(PictureCache.LOG_TAG, "truncated journal "+mFile+" after "+mRecordCount+" records");
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
+	/**
+	 * @param liveCount the number of items in the index
+	 * @return true if the journal is damaged or has too many obsolete records
+	 */
+	boolean needsRebuild(int liveCount) {
+		final int redundantCount = mRecordCount - liveCount;
+		return mNeedsRebuild || (redundantCount >= REBUILD_MIN_REDUNDANT && redundantCount >= liveCount);
+	}
+
+	void writeItem(CacheKey key, CacheItem item) throws IOException {
+		try {
+			DataOutputStream out = getWriter();
+			writePut(out, key, item);
+			++mRecordCount;
+		} catch (IOException e) {
+			onWriteFailed();
+			throw e;
+		}
+	}
+
+	void writeRemoval(CacheKey key) throws IOException {
+		try {
+			DataOutputStream out = getWriter();
+			out.writeByte(RECORD_REMOVE);
+			key.writeTo(out);
+			++mRecordCount;
+		} catch (IOException e) {
+			onWriteFailed();
+			throw e;
+		}
+	}
+
+	void flush() throws IOException {
+		if (mWriter != null) {
+			try {
+				mWriter.flush();
+			} catch (IOException e) {
+				onWriteFailed();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * replace the journal with one that only contains the given items
+	 * @param items the items in the index, the ones without a path are skipped
+	 * @throws IOException
+	 */
+	void rebuild(Iterable<Entry<CacheKey, CacheItem>> items) throws IOException {
+		close();
+
+		int recordCount = 0;
+		mFile.getParentFile().mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTmpFile), 8192));
+		try {
+			writeHeader(out);
+			for (Entry<CacheKey, CacheItem> item : items) {
+				if (item.getValue().path == null)
+					continue;
+				writePut(out, item.getKey(), item.getValue());
+				++recordCount;
+			}
+		} finally {
+			out.close();
+		}
+
+		if (mFile.exists() && !mFile.renameTo(mBackupFile))
+			throw new IOException("failed to backup "+mFile);
+		if (!mTmpFile.renameTo(mFile))
+			throw new IOException("failed to replace "+mFile); // the backup will be used on the next read
+		mBackupFile.delete();
+
+		mRecordCount = recordCount;
+		mNeedsRebuild = false;
+	}
+
+	void close() {
+		if (mWriter != null) {
+			try {
+				mWriter.close();
+			} catch (IOException e) {
+				LogManager.logger.w(PictureCache.LOG_TAG, "failed to close "+mFile, e);
+			}
+			mWriter = null;
+		}
+	}
+
+	private DataOutputStream getWriter() throws IOException {
+		if (mWriter == null) {
+			final boolean isNew = !mFile.exists() || mFile.length() == 0;
+			if (isNew)
+				mFile.getParentFile().mkdirs();
+			mWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true), 8192));
+			if (isNew)
+				writeHeader(mWriter);
+		}
+		return mWriter;
+	}
+
+	private void onWriteFailed() {
+		// the last record may be incomplete
+		close();
+		mNeedsRebuild = true;
+	}
+
+	private static void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	private static void writePut(DataOutputStream out, CacheKey key, CacheItem item) throws IOException {
+		out.writeByte(RECORD_PUT);
+		key.writeTo(out);
+		out.writeUTF(item.getStoredPath());
+		out.writeUTF(item.URL==null ? "" : item.URL);
+		out.writeByte(item.lifeSpan==null ? LifeSpan.SHORTTERM.toStorage() : item.lifeSpan.toStorage());
+		out.writeLong(item.remoteDate);
+		out.writeLong(item.lastAccessDate);
+		out.writeLong(item.fileSize);
+	}
+
+	private static CacheItem readItem(DataInputStream in) throws IOException {
+		CacheItem item = CacheItem.fromStoredPath(in.readUTF(), in.readUTF());
+		item.lifeSpan = LifeSpan.fromStorage(in.readByte());
+		item.remoteDate = in.readLong();
+		item.lastAccessDate = in.readLong();
+		item.fileSize = in.readLong();
+		return item;
+	}
+}
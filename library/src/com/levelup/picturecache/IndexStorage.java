@@ -0,0 +1,10 @@
+package com.levelup.picturecache;
+
+/** indicate how the index of the cached files is kept between runs */
+public enum IndexStorage {
+	/** store each cached file as a row in a SQLite database */
+	SQLITE,
+
+	/** store the cached files in an append-only journal file, compacted when it has too many obsolete records */
+	JOURNAL
+}
@@ -0,0 +1,48 @@
+package com.levelup.picturecache;
+
+import java.util.HashMap;
+
+/**
+ * changes of the {@link PictureCache} index waiting to be stored, only the last change of each key is kept
+ * <p>
+ * thread safe, filled by any thread and emptied on the DB thread
+ */
+class IndexWriteBuffer {
+
+	/** value of a key which item was removed */
+	static final CacheItem REMOVED = new CacheItem(null, null);
+
+	private HashMap<CacheKey, CacheItem> mChanges = new HashMap<CacheKey, CacheItem>();
+
+	/**
+	 * @param key
+	 * @param item the item to store, replaces any pending change for that key
+	 * @return the number of pending changes
+	 */
+	synchronized int put(CacheKey key, CacheItem item) {
+		mChanges.put(key, item);
+		return mChanges.size();
+	}
+
+	/**
+	 * @param key
+	 * @return the number of pending changes
+	 */
+	synchronized int remove(CacheKey key) {
+		mChanges.put(key, REMOVED);
+		return mChanges.size();
+	}
+
+	/**
+	 * @return all the pending changes, the items are {@link #REMOVED} for removed keys
+	 */
+	synchronized HashMap<CacheKey, CacheItem> takeAll() {
+		HashMap<CacheKey, CacheItem> changes = mChanges;
+		mChanges = new HashMap<CacheKey, CacheItem>();
+		return changes;
+	}
+
+	synchronized void clear() {
+		mChanges.clear();
+	}
+}
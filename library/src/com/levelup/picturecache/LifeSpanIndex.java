@@ -0,0 +1,178 @@
+package com.levelup.picturecache;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * access ordered lists of the {@link CacheItem} stored for each {@link LifeSpan}, the least recently used first
+ * <p>
+ * the items are linked intrusively so adding, removing, touching and finding the oldest item are all O(1)
+ * <p>
+ * the total size of the files of each {@link LifeSpan} is kept up to date so it never needs to be computed from the disk
+ * <p>
+ * all calls must be done under the {@link PictureCache} data lock, except {@link #getTotalSize(LifeSpan)}
+ */
+class LifeSpanIndex {
+
+	private static class ItemList {
+		CacheItem head; // least recently used
+		CacheItem tail; // most recently used
+		int count;
+		final AtomicLong totalSize = new AtomicLong();
+	}
+
+	private final ItemList[] mLists;
+
+	LifeSpanIndex() {
+		mLists = new ItemList[LifeSpan.values().length];
+		for (int i=0; i<mLists.length; ++i)
+			mLists[i] = new ItemList();
+	}
+
+	/**
+	 * add the item as the most recently used in the list of its {@link LifeSpan}
+	 * @param key the key of the item in the cache
+	 * @param item the item to add, if it's already in the index it's just touched
+	 */
+	void add(CacheKey key, CacheItem item) {
+		item.lruKey = key;
+		touch(item);
+	}
+
+	/**
+	 * mark the item as the most recently used, move it in the right list if its {@link LifeSpan} changed
+	 * @param item
+	 */
+	void touch(CacheItem item) {
+		if (item.lruLifeSpan != null)
+			unlink(item);
+		link(item);
+	}
+
+	void remove(CacheItem item) {
+		if (item.lruLifeSpan != null)
+			unlink(item);
+	}
+
+	/**
+	 * items accessed since they were placed in the list (their {@link CacheItem#lastAccessDate} changed) are moved at the end of the list first
+	 * @param lifeSpan
+	 * @return the least recently used item of that {@link LifeSpan} or null if there is none
+	 */
+	CacheItem getOldest(LifeSpan lifeSpan) {
+		final ItemList list = mLists[lifeSpan.ordinal()];
+		for (int i=list.count; i>0 && list.head.lastAccessDate != list.head.lruAccessDate; --i)
+			touch(list.head); // second chance
+		return list.head;
+	}
+
+	int getCount(LifeSpan lifeSpan) {
+		return mLists[lifeSpan.ordinal()].count;
+	}
+
+	/**
+	 * @param lifeSpan
+	 * @return the size in bytes of all the files of that {@link LifeSpan}, can be called without the data lock
+	 */
+	long getTotalSize(LifeSpan lifeSpan) {
+		return mLists[lifeSpan.ordinal()].totalSize.get();
+	}
+
+	/**
+	 * change the file size of an item, keeping the total size of its {@link LifeSpan} in sync
+	 * @param item
+	 * @param fileSize the new size in bytes
+	 */
+	void setFileSize(CacheItem item, long fileSize) {
+		if (item.lruLifeSpan != null)
+			mLists[item.lruLifeSpan.ordinal()].totalSize.addAndGet(Math.max(0, fileSize) - Math.max(0, item.fileSize));
+		item.fileSize = fileSize;
+	}
+
+	void clear() {
+		for (ItemList list : mLists) {
+			CacheItem item = list.head;
+			while (item != null) {
+				CacheItem next = item.lruNext;
+				item.lruPrev = null;
+				item.lruNext = null;
+				item.lruLifeSpan = null;
+				item = next;
+			}
+			list.head = null;
+			list.tail = null;
+			list.count = 0;
+			list.totalSize.set(0);
+		}
+	}
+
+	private static final Comparator<CacheItem> ACCESS_DATE_ORDER = new Comparator<CacheItem>() {
+		@Override
+		public int compare(CacheItem lhs, CacheItem rhs) {
+			if (lhs.lastAccessDate < rhs.lastAccessDate) return -1;
+			if (lhs.lastAccessDate > rhs.lastAccessDate) return 1;
+			return 0;
+		}
+	};
+
+	/**
+	 * reorder all the lists using {@link CacheItem#lastAccessDate}, used when the items were not added in access order (ie loaded from the DB)
+	 */
+	void sortByAccessDate() {
+		for (ItemList list : mLists) {
+			if (list.count < 2) continue;
+
+			CacheItem[] items = new CacheItem[list.count];
+			int i = 0;
+			for (CacheItem item = list.head; item != null; item = item.lruNext)
+				items[i++] = item;
+			Arrays.sort(items, ACCESS_DATE_ORDER);
+
+			CacheItem prev = null;
+			for (CacheItem item : items) {
+				item.lruAccessDate = item.lastAccessDate;
+				item.lruPrev = prev;
+				if (prev != null)
+					prev.lruNext = item;
+				prev = item;
+			}
+			prev.lruNext = null;
+			list.head = items[0];
+			list.tail = prev;
+		}
+	}
+
+	private void link(CacheItem item) {
+		final LifeSpan lifeSpan = item.lifeSpan==null ? LifeSpan.SHORTTERM : item.lifeSpan;
+		final ItemList list = mLists[lifeSpan.ordinal()];
+		item.lruLifeSpan = lifeSpan;
+		item.lruAccessDate = item.lastAccessDate;
+		item.lruNext = null;
+		item.lruPrev = list.tail;
+		if (list.tail != null)
+			list.tail.lruNext = item;
+		else
+			list.head = item;
+		list.tail = item;
+		++list.count;
+		list.totalSize.addAndGet(Math.max(0, item.fileSize)); // -1 when it's not known yet
+	}
+
+	private void unlink(CacheItem item) {
+		final ItemList list = mLists[item.lruLifeSpan.ordinal()];
+		if (item.lruPrev != null)
+			item.lruPrev.lruNext = item.lruNext;
+		else
+			list.head = item.lruNext;
+		if (item.lruNext != null)
+			item.lruNext.lruPrev = item.lruPrev;
+		else
+			list.tail = item.lruPrev;
+		item.lruPrev = null;
+		item.lruNext = null;
+		item.lruLifeSpan = null;
+		--list.count;
+		list.totalSize.addAndGet(-Math.max(0, item.fileSize));
+	}
+}
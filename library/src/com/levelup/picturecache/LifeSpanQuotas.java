@@ -0,0 +1,42 @@
+package com.levelup.picturecache;
+
+/**
+ * the part of a memory cache reserved to the pictures of each {@link LifeSpan}
+ * <p>
+ * a {@link LifeSpan} can borrow the room the others don't use, when room is needed the ones over their quota give it back first,
+ * so a burst of short term pictures can't push out the long term ones that stay within their share
+ */
+final class LifeSpanQuotas {
+
+	private final long[] mReserved;
+
+	/**
+	 * @param shares fraction of the cache reserved to each {@link LifeSpan} by ordinal, null when nothing is reserved
+	 * @param maxSize size in bytes of the cache
+	 */
+	LifeSpanQuotas(float[] shares, long maxSize) {
+		mReserved = new long[LifeSpan.values().length];
+		if (shares == null)
+			return;
+
+		float total = 0;
+		for (float share : shares)
+			total += Math.max(0, share);
+		final float scale = total > 1 ? 1 / total : 1; // the reserved parts can't be more than the whole cache
+		for (int i=0; i<mReserved.length && i<shares.length; ++i)
+			mReserved[i] = (long) (Math.max(0, shares[i]) * scale * maxSize);
+	}
+
+	/**
+	 * @param lifeSpan ordinal of the {@link LifeSpan}
+	 * @param size size in bytes used by the pictures of that {@link LifeSpan}
+	 * @return true if it uses more than its reserved part, so its pictures are removed before the others
+	 */
+	boolean isOverQuota(int lifeSpan, long size) {
+		return size > mReserved[lifeSpan];
+	}
+
+	static int indexOf(LifeSpan lifeSpan) {
+		return (lifeSpan==null ? LifeSpan.SHORTTERM : lifeSpan).ordinal();
+	}
+}
@@ -0,0 +1,43 @@
+package com.levelup.picturecache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * read-only memory mappings of the cached files, so pictures are decoded from the page cache without buffering the file again
+ */
+final class MappedFile {
+
+	private MappedFile() {
+	}
+
+	/**
+	 * @return a read-only mapping of the whole file, it stays valid after the file is deleted
+	 * @throws IOException if the file can't be opened
+	 */
+	static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			return input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+		} finally {
+			input.close(); // the mapping doesn't need the file to be open
+		}
+	}
+
+	/**
+	 * decode a picture from a mapping or a buffer in memory, the buffer can be decoded again afterwards
+	 * @param options the decoding options, may be null
+	 */
+	static Bitmap decode(ByteBuffer data, BitmapFactory.Options options) {
+		if (data.hasArray())
+			return BitmapFactory.decodeByteArray(data.array(), data.arrayOffset() + data.position(), data.remaining(), options);
+		return BitmapFactory.decodeStream(new ByteBufferInputStream(data.duplicate()), null, options);
+	}
+}
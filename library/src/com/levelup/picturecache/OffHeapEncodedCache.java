@@ -0,0 +1,290 @@
+package com.levelup.picturecache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * {@link EncodedCache} outside of the Java heap, in a memory mapped temporary file, so it doesn't add to the GC work or the heap limit
+ * <p>
+ * the mapped area is split in pages of {@link #PAGE_SIZE} given on demand to size classes of chunks (1KB, 2KB, 4KB...), like memcached does.
+ * Each picture takes a chunk of the smallest class it fits in, and each class has its own LRU list of pictures for each {@link LifeSpan}.
+ * When a class has no free chunk and no page is left, its least recently used picture is evicted, from the {@link LifeSpan} over their quota first,
+ * see {@link LifeSpanQuotas}.
+ * <p>
+ * the pictures are read through views of their chunk, a chunk is not given to another picture until all the views on it are released
+ */
+class OffHeapEncodedCache implements EncodedCache {
+
+	private static final int PAGE_SIZE = 256 * 1024;
+	private static final int MIN_CHUNK_SIZE = 1024;
+	/** the biggest chunk is a page */
+	private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(PAGE_SIZE / MIN_CHUNK_SIZE) + 1;
+
+	private static class Entry {
+		final CacheKey key;
+		final SizeClass sizeClass;
+		final int offset;
+		final int length;
+		final int lifeSpan;
+		long tick; // last access
+		int readers; // views given by get() and not released yet
+		boolean removed; // its chunk is freed when the last reader is done
+
+		Entry lruPrev;
+		Entry lruNext;
+
+		Entry(CacheKey key, SizeClass sizeClass, int offset, int length, int lifeSpan) {
+			this.key = key;
+			this.sizeClass = sizeClass;
+			this.offset = offset;
+			this.length = length;
+			this.lifeSpan = lifeSpan;
+		}
+	}
+
+	private static class SizeClass {
+		final int chunkSize;
+		int[] freeChunks = new int[16];
+		int freeCount;
+		// LRU list of each LifeSpan
+		final Entry[] heads = new Entry[LifeSpan.values().length]; // least recently used
+		final Entry[] tails = new Entry[LifeSpan.values().length]; // most recently used
+
+		SizeClass(int chunkSize) {
+			this.chunkSize = chunkSize;
+		}
+
+		void free(int offset) {
+			if (freeCount == freeChunks.length) {
+				int[] grown = new int[freeCount * 2];
+				System.arraycopy(freeChunks, 0, grown, 0, freeCount);
+				freeChunks = grown;
+			}
+			freeChunks[freeCount++] = offset;
+		}
+	}
+
+	private final MappedByteBuffer mArea;
+	private final int mPageCount;
+	private final LifeSpanQuotas mQuotas;
+	private int mUsedPages;
+	private long mSize; // the size of the chunks used
+	private final long[] mSizes = new long[LifeSpan.values().length];
+	private long mTick;
+	private final SizeClass[] mClasses = new SizeClass[CLASS_COUNT];
+	private final HashMap<CacheKey, Entry> mEntries = new HashMap<CacheKey, Entry>();
+	private final IdentityHashMap<ByteBuffer, Entry> mReaders = new IdentityHashMap<ByteBuffer, Entry>();
+
+	/**
+	 * @param file the temporary file to map, it's deleted once mapped
+	 * @param maxSize the size in bytes of the mapped area, rounded down to a number of pages
+	 * @param lifeSpanShares fraction of the cache reserved to each {@link LifeSpan} by ordinal, may be null
+	 * @throws IOException if the file can't be mapped
+	 */
+	OffHeapEncodedCache(File file, long maxSize, float[] lifeSpanShares) throws IOException {
+		mPageCount = (int) Math.max(1, Math.min(maxSize, Integer.MAX_VALUE) / PAGE_SIZE);
+		final int size = mPageCount * PAGE_SIZE;
+		RandomAccessFile area = new RandomAccessFile(file, "rw");
+		try {
+			area.setLength(size);
+			mArea = area.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			area.close();
+			file.delete(); // the mapping stays valid, nothing is left behind if the process dies
+		}
+		mQuotas = new LifeSpanQuotas(lifeSpanShares, size);
+		for (int i=0; i<CLASS_COUNT; ++i)
+			mClasses[i] = new SizeClass(MIN_CHUNK_SIZE << i);
+	}
+
+	/**
+	 * the view reads the mapped chunk directly, its chunk is kept for this picture until the view is released
+	 */
+	@Override
+	public synchronized ByteBuffer get(CacheKey key) {
+		Entry entry = mEntries.get(key);
+		if (entry == null)
+			return null;
+		unlink(entry);
+		entry.tick = ++mTick;
+		link(entry);
+		ByteBuffer view = mArea.duplicate();
+		view.position(entry.offset);
+		view.limit(entry.offset + entry.length);
+		view = view.slice().asReadOnlyBuffer();
+		++entry.readers;
+		mReaders.put(view, entry);
+		return view;
+	}
+
+	@Override
+	public synchronized void release(ByteBuffer data) {
+		Entry entry = mReaders.remove(data);
+		if (entry != null && --entry.readers == 0 && entry.removed)
+			entry.sizeClass.free(entry.offset);
+	}
+
+	@Override
+	public synchronized boolean contains(CacheKey key) {
+		return mEntries.containsKey(key);
+	}
+
+	@Override
+	public boolean accepts(int size) {
+		return size <= PAGE_SIZE && size <= (mPageCount * PAGE_SIZE) / 4;
+	}
+
+	@Override
+	public synchronized void put(CacheKey key, LifeSpan lifeSpan, ByteBuffer data) {
+		final int length = data.remaining();
+		if (!accepts(length))
+			return;
+
+		remove(key);
+		final SizeClass sizeClass = getSizeClass(length);
+		final int offset = allocate(sizeClass);
+		if (offset < 0)
+			return; // all the pages are used by other classes or read
+
+		ByteBuffer chunk = mArea.duplicate();
+		chunk.position(offset);
+		chunk.put(data);
+
+		Entry entry = new Entry(key, sizeClass, offset, length, LifeSpanQuotas.indexOf(lifeSpan));
+		entry.tick = ++mTick;
+		mEntries.put(key, entry);
+		link(entry);
+		mSize += sizeClass.chunkSize;
+		mSizes[entry.lifeSpan] += sizeClass.chunkSize;
+	}
+
+	@Override
+	public synchronized void remove(CacheKey key) {
+		Entry entry = mEntries.remove(key);
+		if (entry != null) {
+			unlink(entry);
+			mSize -= entry.sizeClass.chunkSize;
+			mSizes[entry.lifeSpan] -= entry.sizeClass.chunkSize;
+			if (entry.readers == 0)
+				entry.sizeClass.free(entry.offset);
+			else
+				entry.removed = true; // freed by the last release()
+		}
+	}
+
+	@Override
+	public synchronized void evictAll() {
+		for (CacheKey key : new ArrayList<CacheKey>(mEntries.keySet()))
+			remove(key);
+		if (mReaders.isEmpty()) {
+			// give the pages back so they can be split for other classes
+			for (SizeClass sizeClass : mClasses)
+				sizeClass.freeCount = 0;
+			mUsedPages = 0;
+		}
+	}
+
+	/**
+	 * the least recently used picture of each size class is removed in turn, the mapped memory stays allocated
+	 */
+	@Override
+	public synchronized long trimToSize(long maxSize) {
+		final long initialSize = mSize;
+		boolean removed = true;
+		while (mSize > maxSize && removed) {
+			removed = false;
+			for (SizeClass sizeClass : mClasses) {
+				if (mSize > maxSize) {
+					Entry victim = nextVictim(sizeClass);
+					if (victim != null) {
+						remove(victim.key);
+						removed = true;
+					}
+				}
+			}
+		}
+		return initialSize - mSize;
+	}
+
+	@Override
+	public synchronized long getSize() {
+		return mSize;
+	}
+
+	private SizeClass getSizeClass(int length) {
+		int index = 0;
+		while ((MIN_CHUNK_SIZE << index) < length)
+			++index;
+		return mClasses[index];
+	}
+
+	/**
+	 * @return the offset of a free chunk of that class, -1 if there is none
+	 */
+	private int allocate(SizeClass sizeClass) {
+		while (sizeClass.freeCount == 0) {
+			if (mUsedPages < mPageCount) {
+				// split a new page in chunks
+				final int pageStart = mUsedPages++ * PAGE_SIZE;
+				for (int offset = pageStart + PAGE_SIZE - sizeClass.chunkSize; offset >= pageStart; offset -= sizeClass.chunkSize)
+					sizeClass.free(offset);
+			} else {
+				Entry victim = nextVictim(sizeClass);
+				if (victim == null)
+					return -1;
+				remove(victim.key); // its chunk may still be read, then the next one is tried
+			}
+		}
+		return sizeClass.freeChunks[--sizeClass.freeCount];
+	}
+
+	/**
+	 * @return the least recently used entry of the class in the {@link LifeSpan} over their quota, or of all if none is over, null if the class is empty
+	 */
+	private Entry nextVictim(SizeClass sizeClass) {
+		Entry oldest = null;
+		Entry oldestOverQuota = null;
+		for (int i=0; i<sizeClass.heads.length; ++i) {
+			final Entry head = sizeClass.heads[i];
+			if (head == null)
+				continue;
+			if (oldest == null || head.tick < oldest.tick)
+				oldest = head;
+			if (mQuotas.isOverQuota(i, mSizes[i]) && (oldestOverQuota == null || head.tick < oldestOverQuota.tick))
+				oldestOverQuota = head;
+		}
+		return oldestOverQuota != null ? oldestOverQuota : oldest;
+	}
+
+	private static void link(Entry entry) {
+		final SizeClass sizeClass = entry.sizeClass;
+		entry.lruNext = null;
+		entry.lruPrev = sizeClass.tails[entry.lifeSpan];
+		if (entry.lruPrev != null)
+			entry.lruPrev.lruNext = entry;
+		else
+			sizeClass.heads[entry.lifeSpan] = entry;
+		sizeClass.tails[entry.lifeSpan] = entry;
+	}
+
+	private static void unlink(Entry entry) {
+		final SizeClass sizeClass = entry.sizeClass;
+		if (entry.lruPrev != null)
+			entry.lruPrev.lruNext = entry.lruNext;
+		else
+			sizeClass.heads[entry.lifeSpan] = entry.lruNext;
+		if (entry.lruNext != null)
+			entry.lruNext.lruPrev = entry.lruPrev;
+		else
+			sizeClass.tails[entry.lifeSpan] = entry.lruPrev;
+		entry.lruPrev = null;
+		entry.lruNext = null;
+	}
+}
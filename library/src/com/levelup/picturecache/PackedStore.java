@@ -0,0 +1,207 @@
+package com.levelup.picturecache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * small pictures packed one after the other in a few append-only segment files rather than each in its own file
+ * <p>
+ * a packed {@link CacheItem} has the segment as its {@link CacheItem#path}, its position in {@link CacheItem#packedOffset}
+ * and its length in {@link CacheItem#fileSize}. The segments are read through memory mappings.
+ * <p>
+ * the space of removed pictures is only recovered when a segment is compacted, see {@link #MIN_LIVE_RATIO}
+ * <p>
+ * thread safe
+ */
+class PackedStore {
+
+	static final String FOLDER_NAME = "packed";
+	private static final String SEGMENT_EXTENSION = ".seg";
+
+	/** size after which a new segment is started */
+	private static final long SEGMENT_MAX_SIZE = 4 * 1024 * 1024;
+	/** part of a segment that must still be used by items, below that it's compacted */
+	static final float MIN_LIVE_RATIO = 0.5f;
+
+	private final File mFolder;
+	private final HashMap<File, MappedByteBuffer> mMappings = new HashMap<File, MappedByteBuffer>();
+
+	private File mActive;
+	private FileOutputStream mActiveOutput;
+	private long mActiveSize;
+
+	PackedStore(File folder) {
+		this.mFolder = folder;
+	}
+
+	/**
+	 * write a picture at the end of the active segment
+	 * @param data the encoded picture
+	 * @param url the URL of the picture
+	 * @return a new item stored in the segment
+	 */
+	synchronized CacheItem append(ByteArrayOutputStream data, String url) throws IOException {
+		prepareActive();
+		CacheItem item = newItem(url, data.size());
+		boolean written = false;
+		try {
+			data.writeTo(mActiveOutput);
+			written = true;
+		} finally {
+			if (written)
+				mActiveSize += data.size();
+			else
+				resyncActive();
+		}
+		return item;
+	}
+
+	/**
+	 * write a picture read from another segment at the end of the active segment
+	 * @param data the encoded picture, read until its limit
+	 * @param url the URL of the picture
+	 * @return a new item stored in the segment
+	 */
+	synchronized CacheItem append(ByteBuffer data, String url) throws IOException {
+		prepareActive();
+		final int size = data.remaining();
+		CacheItem item = newItem(url, size);
+		boolean written = false;
+		try {
+			FileChannel channel = mActiveOutput.getChannel();
+			while (data.hasRemaining())
+				channel.write(data);
+			written = true;
+		} finally {
+			if (written)
+				mActiveSize += size;
+			else
+				resyncActive();
+		}
+		return item;
+	}
+
+	private CacheItem newItem(String url, long size) {
+		CacheItem item = new CacheItem(mActive, url);
+		item.packedOffset = mActiveSize;
+		item.fileSize = size;
+		return item;
+	}
+
+	/**
+	 * @return the bytes of the packed item, from a memory mapping of its segment
+	 * @throws IOException if the segment is missing or too short
+	 */
+	synchronized ByteBuffer read(CacheItem item) throws IOException {
+		final long end = item.packedOffset + item.fileSize;
+		MappedByteBuffer mapping = mMappings.get(item.path);
+		if (mapping == null || mapping.capacity() < end) {
+			// not mapped yet or the segment grew since
+			mapping = MappedFile.map(item.path);
+			if (mapping.capacity() < end)
+				throw new IOException("segment "+item.path+" is too short for "+item);
+			mMappings.put(item.path, mapping);
+		}
+		ByteBuffer slice = mapping.duplicate();
+		slice.position((int) item.packedOffset);
+		slice.limit((int) end);
+		return slice.slice();
+	}
+
+	/**
+	 * @return all the segments on disk
+	 */
+	File[] getSegments() {
+		File[] segments = mFolder.listFiles();
+		if (segments == null)
+			return new File[0];
+		return segments;
+	}
+
+	synchronized boolean isActive(File segment) {
+		return segment.equals(mActive);
+	}
+
+	/**
+	 * delete a segment that is not used by any item anymore
+	 */
+	synchronized void delete(File segment) {
+		if (segment.equals(mActive))
+			closeActive();
+		mMappings.remove(segment);
+		segment.delete();
+	}
+
+	/**
+	 * forget the segments, to call before the cache folder is deleted
+	 */
+	synchronized void reset() {
+		closeActive();
+		mMappings.clear();
+	}
+
+	private void prepareActive() throws IOException {
+		if (mActiveOutput != null && mActiveSize < SEGMENT_MAX_SIZE)
+			return;
+
+		closeActive();
+		mFolder.mkdirs();
+
+		// continue the last segment of the previous run if it has room left
+		int lastNumber = -1;
+		for (File segment : getSegments()) {
+			final int number = getSegmentNumber(segment);
+			if (number > lastNumber)
+				lastNumber = number;
+		}
+		File segment = new File(mFolder, lastNumber + SEGMENT_EXTENSION);
+		if (lastNumber < 0 || segment.length() >= SEGMENT_MAX_SIZE)
+			segment = new File(mFolder, (lastNumber + 1) + SEGMENT_EXTENSION);
+
+		mActiveOutput = new FileOutputStream(segment, true);
+		mActive = segment;
+		mActiveSize = segment.length();
+	}
+
+	/**
+	 * after a failed write part of the picture may be in the segment, the next items start after it
+	 */
+	private void resyncActive() {
+		try {
+			mActiveSize = mActiveOutput.getChannel().size();
+		} catch (IOException e) {
+			LogManager.logger.w(PictureCache.LOG_TAG, "can't get the size of "+mActive, e);
+			closeActive(); // the next items go in a new segment
+		}
+	}
+
+	private void closeActive() {
+		if (mActiveOutput != null) {
+			try {
+				mActiveOutput.close();
+			} catch (IOException e) {
+				LogManager.logger.w(PictureCache.LOG_TAG, "failed to close "+mActive, e);
+			}
+			mActiveOutput = null;
+		}
+		mActive = null;
+		mActiveSize = 0;
+	}
+
+	private static int getSegmentNumber(File segment) {
+		final String name = segment.getName();
+		if (!name.endsWith(SEGMENT_EXTENSION))
+			return -1;
+		try {
+			return Integer.parseInt(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
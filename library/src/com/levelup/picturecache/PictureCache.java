@@ -1,14 +1,19 @@
 package com.levelup.picturecache;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import st.gaw.db.AsynchronousDbHelper;
 import st.gaw.db.AsynchronousDbOperation;
@@ -18,18 +23,22 @@ import st.gaw.db.MapEntry;
 import uk.co.senab.bitmapcache.BitmapLruCache;
 import uk.co.senab.bitmapcache.BitmapLruCache.Builder;
 import uk.co.senab.bitmapcache.BitmapLruCache.RecyclePolicy;
-import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.ReceiverCallNotAllowedException;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.levelup.FileUtils;
@@ -37,6 +46,9 @@ import com.levelup.picturecache.DownloadManager.JobsMonitor;
 import com.levelup.picturecache.loaders.PrecacheImageLoader;
 import com.levelup.picturecache.loaders.RemoteViewLoader;
 import com.levelup.picturecache.loaders.ViewLoader;
+import com.levelup.picturecache.transforms.bitmap.BitmapTransform;
+import com.levelup.picturecache.transforms.bitmap.BitmapTransformChain;
+import com.levelup.picturecache.transforms.bitmap.StableBitmapTransform;
 
 /**
  * base class to use the picture cache to load images and keep a persistent cache 
@@ -45,13 +57,47 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 
 	public static final String LOG_TAG = "PictureCache";
 	final static boolean DEBUG_CACHE = false & BuildConfig.DEBUG;
-	
-	static int MAXBITMAP_IN_MEMORY = 400000;
 
 	/**
-	 * How many new items need to be added to the database before a purge is done
+	 * How long a purge or the file checks can run on the DB thread before letting the other DB operations run
 	 */
-	private static final int MIN_ADD_BEFORE_PURGE = 7;
+	private static final long PURGE_SLICE_MS = 20;
+
+	/**
+	 * How long the changes of the index are kept in memory before they are written, so an item changed many times is written once
+	 */
+	private static final long WRITE_DELAY_MS = 2000;
+
+	/**
+	 * How many changed items are written without waiting for {@link #WRITE_DELAY_MS}
+	 */
+	private static final int WRITE_BATCH_SIZE = 128;
+
+	/**
+	 * Precision of the stored access dates, an item accessed often is stored at most once per period. The date in memory is always exact
+	 */
+	private static final long ACCESS_DATE_STORE_PERIOD = 60000;
+
+	/**
+	 * The encoded pictures kept in memory use this fraction of the Bitmaps memory cache size on top of it, they are 10 to 20 times smaller than the decoded ones
+	 */
+	private static final int ENCODED_CACHE_RATIO = 4;
+
+	/**
+	 * The Bitmaps not used anymore kept to decode new pictures use this fraction of the Bitmaps memory cache size
+	 */
+	private static final int BITMAP_POOL_RATIO = 8;
+
+	// levels of ComponentCallbacks2.onTrimMemory(), not available before API 14
+	private static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+	private static final int TRIM_MEMORY_RUNNING_LOW = 10;
+	private static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+	private static final int TRIM_MEMORY_MODERATE = 60;
+
+	/**
+	 * How long the prefetching into a {@link PrecacheImageLoader} is paused after a critical memory trim
+	 */
+	private static final long PREFETCH_PAUSE_MS = 30000;
 
 	/**
 	 * size in bytes of the amount of storage available for files of the specified {@link LifeSpan}
@@ -61,6 +107,39 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 	 */
 	protected abstract int getCacheMaxSize(LifeSpan lifeSpan);
 
+	/**
+	 * size in bytes the storage of the specified {@link LifeSpan} is purged down to once it went over {@link #getCacheMaxSize(LifeSpan)}
+	 * <p>By default 90% of the maximum size, so a purge is not triggered again by the next file added</p>
+	 * @param lifeSpan type of {@link LifeSpan}
+	 * @return the amount in bytes to purge down to, must not be bigger than {@link #getCacheMaxSize(LifeSpan)}
+	 */
+	protected int getCachePurgeTargetSize(LifeSpan lifeSpan) {
+		return (int) (getCacheMaxSize(lifeSpan) * 0.9f);
+	}
+
+	/**
+	 * fraction of the memory caches reserved to the pictures of the specified {@link LifeSpan}, they can use more
+	 * while the others don't use their part, and the others can't push them out while they stay within it
+	 * <p>By default nothing is reserved, all the pictures share the memory in LRU order</p>
+	 * <p>Called from the constructor</p>
+	 * @param lifeSpan type of {@link LifeSpan}
+	 * @return the fraction between 0 and 1, the sum for all {@link LifeSpan} should not be more than 1
+	 */
+	protected float getMemoryCacheShare(LifeSpan lifeSpan) {
+		return 0;
+	}
+
+	/**
+	 * size in bytes up to which the stored pictures of the specified {@link LifeSpan} are packed together in a few segment files
+	 * rather than each in its own file, which is faster to read and saves filesystem space for small pictures like avatars
+	 * <p>By default 0, the pictures are never packed</p>
+	 * @param lifeSpan type of {@link LifeSpan}
+	 * @return the maximum size in bytes of a packed picture, 0 to store them all in their own file
+	 */
+	protected int getPackedMaxSize(LifeSpan lifeSpan) {
+		return 0;
+	}
+
 	/**
 	 * return a different uuid for when the original uuid just got a new URL. this way we can keep the old and new versions in the cache
 	 * @param uuid base UUID
@@ -81,8 +160,10 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 
 	private static final String DATABASE_NAME = "PictureCachev2.sqlite";
 	private static final String OLD_DATABASE_NAME = "PictureCache.sqlite";
-	private static final int DATABASE_VERSION = 1;
+	private static final int DATABASE_VERSION = 2;
 	private static final String TABLE_NAME = "Pictures";
+	private static final String JOURNAL_NAME = "PictureCache.journal";
+	private static final String OFF_HEAP_CACHE_NAME = "PictureCache.encoded";
 
 	private static final String CREATE_TABLE = 
 			"CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " " + 
@@ -92,21 +173,85 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 					"PATH VARCHAR, " +                   // the path in the cached picture file
 					"REMOTE_DATE LONG DEFAULT 0, " +     // the last remote date using to the item (if applicable)
 					"DATE LONG not null DEFAULT -1, " +  // the date of last access to the item
+					"FILE_SIZE LONG DEFAULT -1, " +      // the size of the cached picture file
 					"PRIMARY KEY (UUID));";
 
 	private static Boolean mDirAsserted = Boolean.FALSE;
 
 	private final File mCacheFolder;
+	private final CacheShards mShards;
+	private final PackedStore mPackedStore;
 	final UIHandler postHandler;
 	final OutOfMemoryHandler ooHandler;
 
 	private DownloadManager mJobManager;
 	private Context mContext;
 
+	/** cache of the placeholder drawables used by the loaders */
 	final BitmapLruCache mBitmapCache;
+	/** cache of the decoded pictures, null if there is no memory cache */
+	final BitmapMemoryCache mMemoryCache;
+	/** cache of the encoded pictures, decoded when they're not in {@link #mMemoryCache}, null if there is no memory cache */
+	private final EncodedCache mEncodedCache;
+	/** Bitmaps released by the {@link RefCountedBitmapDrawable} to decode new pictures, null if there is no memory cache */
+	private final BitmapPool mBitmapPool;
+
+	/** whether a purge is pending/running for each {@link LifeSpan} */
+	private final AtomicBoolean[] mPurgeScheduled = new AtomicBoolean[LifeSpan.values().length];
+	/** uptime until which the loading into a {@link PrecacheImageLoader} is paused, see {@link #trimMemory(int)} */
+	private volatile long mPrefetchPausedUntil;
+	/** how many times each step of {@link #trimMemory(int)} was done, guarded by mTrimCounts */
+	private final int[] mTrimCounts = new int[4];
+	private static final int TRIM_STEP_SOFT = 0;
+	private static final int TRIM_STEP_ENCODED = 1;
+	private static final int TRIM_STEP_BITMAPS = 2;
+	private static final int TRIM_STEP_PREFETCH = 3;
+
+	/** whether a compaction of the packed segments is pending/running */
+	private final AtomicBoolean mCompactScheduled = new AtomicBoolean();
+
+	/** keys which file is waiting to be moved in its folder on the DB thread */
+	private final ConcurrentHashMap<CacheKey, Boolean> mPendingShardMoves = new ConcurrentHashMap<CacheKey, Boolean>();
+
+	/** the journal where the index is stored with {@link IndexStorage#JOURNAL}, null when it's stored in SQLite, only used on the DB thread */
+	private final IndexJournal mIndexJournal;
+
+	/** LRU order of the items for each {@link LifeSpan}, guarded by mDataLock, created in {@link #preloadInit()} as it's used during the DB loading */
+	private LifeSpanIndex mLruIndex;
+
+	/** copy of the items map that can be read without holding mDataLock, only modified under mDataLock, created in {@link #preloadInit()} */
+	private ConcurrentHashMap<CacheKey, CacheItem> mReadIndex;
+
+	/** set once all the items from the DB/journal are in memory */
+	private volatile boolean mIndexLoaded;
+
+	/** whether the items being put come from the DB loading, guarded by mDataLock */
+	private boolean mLoadingDb;
+	/** whether the DB loading found items, guarded by mDataLock */
+	private boolean mDbHasItems;
+	/** keys put or removed while the index is loading, their journal records are older, guarded by mDataLock, null once the index is loaded */
+	private HashSet<CacheKey> mChangedWhileLoading;
+
+	/** changes of the index waiting to be written in the DB/journal, created in {@link #preloadInit()} */
+	private IndexWriteBuffer mPendingWrites;
+	private Handler mWriteHandler;
+	private Runnable mDelayedWrite;
 
-	private AtomicInteger mPurgeCounterLongterm = new AtomicInteger();
-	private AtomicInteger mPurgeCounterShortterm = new AtomicInteger();
+	@Override
+	protected void preloadInit() {
+		super.preloadInit();
+		mLruIndex = new LifeSpanIndex();
+		mReadIndex = new ConcurrentHashMap<CacheKey, CacheItem>();
+		mChangedWhileLoading = new HashSet<CacheKey>();
+		mPendingWrites = new IndexWriteBuffer();
+		mWriteHandler = new Handler(Looper.getMainLooper());
+		mDelayedWrite = new Runnable() {
+			@Override
+			public void run() {
+				scheduleCustomOperation(new WritePendingChanges());
+			}
+		};
+	}
 
 	@Override
 	protected String getMainTableName() {
@@ -126,6 +271,7 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 		int indexRemoteDate = c.getColumnIndex("REMOTE_DATE");
 		int indexDate = c.getColumnIndex("DATE");
 		int indexUUID = c.getColumnIndex("UUID");
+		int indexFileSize = c.getColumnIndex("FILE_SIZE");
 
 		final String url = c.getString(indexURL);
 
@@ -146,31 +292,29 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 				widthBased = c.getInt(indexWidthBased) != 0;
 
 			if (!TextUtils.isEmpty(path)) {
+				// the file is checked and its size read by ReconcileFiles after the loading
 				CacheItem val = new CacheItem(new File(path), url);
-				if (val.path.exists()) {
-					val.lifeSpan = LifeSpan.fromStorage(c.getInt(indexType));
-					val.remoteDate = c.getLong(indexRemoteDate);
-					val.lastAccessDate = c.getLong(indexDate);
+				val.lifeSpan = LifeSpan.fromStorage(c.getInt(indexType));
+				val.remoteDate = c.getLong(indexRemoteDate);
+				val.lastAccessDate = c.getLong(indexDate);
+				val.fileSize = -1;
 
-					CacheKey key = CacheKey.newUUIDBasedKey(c.getString(indexUUID), c.getInt(indexHeight), widthBased, StorageType.AUTO, null);
+				CacheKey key = CacheKey.newUUIDBasedKey(c.getString(indexUUID), c.getInt(indexHeight), widthBased, StorageType.AUTO, null);
 
-					put(key, val);
-				} else {
-					if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "missing cache file for undated item "+path);
-				}
+				putEntry(new MapEntry<CacheKey, CacheItem>(key, val)); // stored in the current format by ReconcileFiles
 			}
 
 			if (!TextUtils.isEmpty(pathr)) {
+				// the file is checked and its size read by ReconcileFiles after the loading
 				CacheItem val = new CacheItem(new File(pathr), url);
-				if (val.path.exists()) {
-					val.lifeSpan = LifeSpan.fromStorage(c.getInt(indexType));
-					val.remoteDate = c.getLong(indexRemoteDate);
-					val.lastAccessDate = c.getLong(indexDate);
+				val.lifeSpan = LifeSpan.fromStorage(c.getInt(indexType));
+				val.remoteDate = c.getLong(indexRemoteDate);
+				val.lastAccessDate = c.getLong(indexDate);
+				val.fileSize = -1;
 
-					CacheKey key = CacheKey.newUUIDBasedKey(c.getString(indexUUID), c.getInt(indexHeight), widthBased, StorageType.AUTO, "_r");
+				CacheKey key = CacheKey.newUUIDBasedKey(c.getString(indexUUID), c.getInt(indexHeight), widthBased, StorageType.AUTO, "_r");
 
-					put(key, val);
-				}
+				putEntry(new MapEntry<CacheKey, CacheItem>(key, val)); // stored in the current format by ReconcileFiles
 			}
 
 			return null; // already done manually
@@ -182,16 +326,13 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 				remove(key); // make sure we don't use it again
 				return null;
 			}
-			File picSrc = new File(path);
-			CacheItem val = new CacheItem(picSrc, url);
+			CacheItem val = CacheItem.fromStoredPath(path, url);
 			val.lifeSpan = LifeSpan.fromStorage(c.getInt(indexType));
 			val.remoteDate = c.getLong(indexRemoteDate);
 			val.lastAccessDate = c.getLong(indexDate);
-			if (!picSrc.exists() || !picSrc.isFile()) {
-				LogManager.logger.w(LOG_TAG, "trying to load a missing file for "+val);
-				remove(key); // make sure we don't use it again
-				return null;
-			}
+			// the file is not checked here, it's done when it's accessed and by ReconcileFiles after the loading
+			// stored before the file size was recorded, it's read by ReconcileFiles
+			val.fileSize = indexFileSize == -1 ? -1 : c.getLong(indexFileSize);
 
 			return new MapEntry<CacheKey, CacheItem>(key, val);
 		}
@@ -204,13 +345,14 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 			throw new RuntimeException("empty path for "+data);
 		}
 
-		ContentValues values = new ContentValues(6);
+		ContentValues values = new ContentValues(7);
 		values.put("UUID", data.getKey().serialize());
 		values.put("SRC_URL", data.getValue().URL);
 		values.put("TYPE", data.getValue().lifeSpan.toStorage());
-		values.put("PATH", data.getValue().path.getAbsolutePath());
+		values.put("PATH", data.getValue().getStoredPath());
 		values.put("REMOTE_DATE", data.getValue().remoteDate);
 		values.put("DATE", data.getValue().lastAccessDate);
+		values.put("FILE_SIZE", data.getValue().fileSize);
 
 		return values;
 	}
@@ -234,6 +376,34 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 	 * @param bitmapCacheSize The size to use in memory for the Bitmaps cache, 0 for no memory cache, -1 for heap size based
 	 */
 	protected PictureCache(Context context, UIHandler postHandler, Logger logger, OutOfMemoryHandler ooHandler, int bitmapCacheSize) {
+		this(context, postHandler, logger, ooHandler, bitmapCacheSize, IndexStorage.SQLITE);
+	}
+
+	/**
+	 * Constructor of a PictureCache
+	 * @param context Context of the application, may also be used to get a {@link ContentResolver}
+	 * @param postHandler Handler to run some code in the UI thread and also determine if we're in the UI thread or not
+	 * @param logger A {@link Logger} object used to send all the logs generated inside the cache, may be null
+	 * @param ooHandler A {@link OutOfMemoryHandler} object used to notify when we are short on memory, may be null
+	 * @param bitmapCacheSize The size to use in memory for the Bitmaps cache, 0 for no memory cache, -1 for heap size based
+	 * @param indexStorage How the index of the cached files is stored, see {@link IndexStorage}. Items found in the SQLite database are moved to the journal with {@link IndexStorage#JOURNAL}
+	 */
+	protected PictureCache(Context context, UIHandler postHandler, Logger logger, OutOfMemoryHandler ooHandler, int bitmapCacheSize, IndexStorage indexStorage) {
+		this(context, postHandler, logger, ooHandler, bitmapCacheSize, indexStorage, 0);
+	}
+
+	/**
+	 * Constructor of a PictureCache
+	 * @param context Context of the application, may also be used to get a {@link ContentResolver}
+	 * @param postHandler Handler to run some code in the UI thread and also determine if we're in the UI thread or not
+	 * @param logger A {@link Logger} object used to send all the logs generated inside the cache, may be null
+	 * @param ooHandler A {@link OutOfMemoryHandler} object used to notify when we are short on memory, may be null
+	 * @param bitmapCacheSize The size to use in memory for the Bitmaps cache, 0 for no memory cache, -1 for heap size based
+	 * @param indexStorage How the index of the cached files is stored, see {@link IndexStorage}. Items found in the SQLite database are moved to the journal with {@link IndexStorage#JOURNAL}
+	 * @param offHeapCacheSize The size of the cache of encoded pictures kept outside of the Java heap, 0 to keep them in the heap.
+	 * Only used when there is a memory cache
+	 */
+	protected PictureCache(Context context, UIHandler postHandler, Logger logger, OutOfMemoryHandler ooHandler, int bitmapCacheSize, IndexStorage indexStorage, int offHeapCacheSize) {
 		super(context, DATABASE_NAME, DATABASE_VERSION, logger);
 
 		LogManager.setLogger(logger==null ? new LogManager.LoggerDefault() : logger);
@@ -248,11 +418,12 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 		else
 			this.ooHandler = ooHandler;
 		
-		MAXBITMAP_IN_MEMORY = context.getResources().getDisplayMetrics().densityDpi * context.getResources().getDisplayMetrics().widthPixels * 4;
-		
-		if (bitmapCacheSize==0)
+		if (bitmapCacheSize==0) {
 			this.mBitmapCache = null;
-		else {
+			this.mMemoryCache = null;
+			this.mEncodedCache = null;
+			this.mBitmapPool = null;
+		} else {
 			Builder builder = new BitmapLruCache.Builder(context).
 					setDiskCacheEnabled(false)
 					.setMemoryCacheEnabled(true)
@@ -262,6 +433,13 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 			else
 				builder.setMemoryCacheMaxSize(bitmapCacheSize);
 			this.mBitmapCache = builder.build();
+			final long memoryCacheSize = bitmapCacheSize < 0 ? Runtime.getRuntime().maxMemory() / 8 : bitmapCacheSize;
+			final float[] lifeSpanShares = new float[LifeSpan.values().length];
+			for (LifeSpan lifeSpan : LifeSpan.values())
+				lifeSpanShares[lifeSpan.ordinal()] = getMemoryCacheShare(lifeSpan);
+			this.mMemoryCache = new BitmapMemoryCache(memoryCacheSize, lifeSpanShares);
+			this.mEncodedCache = createEncodedCache(context, memoryCacheSize / ENCODED_CACHE_RATIO, offHeapCacheSize, lifeSpanShares);
+			this.mBitmapPool = new BitmapPool(memoryCacheSize / BITMAP_POOL_RATIO);
 		}
 
 		File olddir = new File(Environment.getExternalStorageDirectory(), "/Android/data/"+context.getPackageName()+"/cache");
@@ -279,10 +457,23 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 			}
 			mCacheFolder = newdir;
 		}
+		mShards = new CacheShards(mCacheFolder);
+		mPackedStore = new PackedStore(new File(mCacheFolder, PackedStore.FOLDER_NAME));
+
+		for (int i=0; i<mPurgeScheduled.length; ++i)
+			mPurgeScheduled[i] = new AtomicBoolean();
 
 		mJobManager = new DownloadManager();
 		mJobManager.setMonitor(this);
 
+		// these run on the DB thread after the DB loading
+		if (indexStorage == IndexStorage.JOURNAL) {
+			mIndexJournal = new IndexJournal(context.getDatabasePath(JOURNAL_NAME));
+			scheduleCustomOperation(new LoadJournal());
+		} else
+			mIndexJournal = null;
+		scheduleCustomOperation(new ReconcileFiles());
+
 		File olddb = context.getDatabasePath(OLD_DATABASE_NAME);
 		if (olddb.exists()) {
 			/* TODO: SQLiteDatabase oldDB = context.openOrCreateDatabase(OLD_DATABASE_NAME, 0, null);
@@ -294,16 +485,178 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 		//getWritableDatabase().setLockingEnabled(false); // we do our own thread protection
 	}
 
+	private static EncodedCache createEncodedCache(Context context, long heapSize, int offHeapSize, float[] lifeSpanShares) {
+		if (offHeapSize > 0) {
+			try {
+				return new OffHeapEncodedCache(new File(context.getCacheDir(), OFF_HEAP_CACHE_NAME), offHeapSize, lifeSpanShares);
+			} catch (IOException e) {
+				LogManager.logger.w(LOG_TAG, "can't map the off heap cache, using the heap", e);
+			}
+		}
+		return new EncodedMemoryCache(heapSize, lifeSpanShares);
+	}
+
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		LogManager.logger.w(LOG_TAG, "Upgrading PictureCache from " + oldVersion + " to " + newVersion);
+		if (oldVersion < 2)
+			db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN FILE_SIZE LONG DEFAULT -1");
+	}
+
+	@Override
+	public CacheItem put(CacheKey key, CacheItem value) {
+		mDataLock.lock();
+		try {
+			onChangeWhileLoading(key);
+			CacheItem old = putInMemory(key, value);
+			storeItem(key, value);
+			return old;
+		} finally {
+			mDataLock.unlock();
+		}
+	}
+
+	@Override
+	public CacheItem remove(CacheKey key) {
+		if (mEncodedCache != null)
+			mEncodedCache.remove(key);
+		mDataLock.lock();
+		try {
+			onChangeWhileLoading(key);
+			CacheItem old = removeFromMemory(key);
+			if (old != null)
+				storeRemoval(key);
+			return old;
+		} finally {
+			mDataLock.unlock();
+		}
+	}
+
+	@Override
+	public void notifyItemChanged(CacheKey key) {
+		CacheItem item = get(key);
+		if (item != null)
+			storeItem(key, item);
+	}
+
+	@Override
+	protected void putEntry(Entry<CacheKey, CacheItem> entry) {
+		mDbHasItems = true;
+		putInMemory(entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * note the changes not coming from the DB loading while the index is not fully loaded, must be called with mDataLock held
+	 */
+	private void onChangeWhileLoading(CacheKey key) {
+		if (!mLoadingDb && mChangedWhileLoading != null)
+			mChangedWhileLoading.add(key);
+	}
+
+	/**
+	 * add or replace the item in memory without storing it, must be called with mDataLock held
+	 * @return the previous item for that key
+	 */
+	private CacheItem putInMemory(CacheKey key, CacheItem value) {
+		CacheItem old = getMap().put(key, value);
+		if (old != null && old != value)
+			mLruIndex.remove(old);
+		mLruIndex.add(key, value);
+		mReadIndex.put(key, value);
+		return old;
+	}
+
+	/**
+	 * remove the item from memory without storing it, must be called with mDataLock held
+	 * @return the removed item
+	 */
+	private CacheItem removeFromMemory(CacheKey key) {
+		CacheItem old = getMap().remove(key);
+		if (old != null) {
+			mLruIndex.remove(old);
+			mReadIndex.remove(key);
+		}
+		return old;
+	}
+
+	/**
+	 * store the new item or its changes in the SQLite DB or the journal, along with the other changes done in {@link #WRITE_DELAY_MS}
+	 */
+	private void storeItem(CacheKey key, CacheItem item) {
+		onPendingWrite(mPendingWrites.put(key, item));
+	}
+
+	private void storeRemoval(CacheKey key) {
+		onPendingWrite(mPendingWrites.remove(key));
+	}
+
+	private void onPendingWrite(int pendingCount) {
+		if (pendingCount == WRITE_BATCH_SIZE)
+			flushPendingWrites();
+		else if (pendingCount == 1)
+			mWriteHandler.postDelayed(mDelayedWrite, WRITE_DELAY_MS);
+	}
+
+	/**
+	 * write the pending changes of the index now rather than after a short delay, ie before the application is stopped
+	 * <p>the changes of the last couple of seconds are lost if the process is killed before they are written, the files of the new
+	 * pictures are then left out of the index. Call it from {@link android.app.Activity#onPause()},
+	 * it's also done by {@link #trimMemory(int)}</p>
+	 * <p>the writing is done on the DB thread, before the DB operations scheduled after this call</p>
+	 */
+	public void flushPendingWrites() {
+		mWriteHandler.removeCallbacks(mDelayedWrite);
+		scheduleCustomOperation(new WritePendingChanges());
+	}
+
+	/**
+	 * get the item stored for that key without locking, the item may be removed from the cache by another thread right after
+	 */
+	@Override
+	public CacheItem get(CacheKey key) {
+		if (key == null)
+			return null;
+		return mReadIndex.get(key);
+	}
+
+	@Override
+	public boolean containsKey(CacheKey key) {
+		return key != null && mReadIndex.containsKey(key);
+	}
+
+	@Override
+	protected void startLoadingInMemory() {
+		super.startLoadingInMemory(); // takes mDataLock until the loading is finished
+		mLoadingDb = true;
+	}
+
+	@Override
+	protected void finishLoadingInMemory() {
+		mLoadingDb = false;
+		// the DB is not read in the access order
+		mLruIndex.sortByAccessDate();
+		super.finishLoadingInMemory();
+	}
+
+	@Override
+	protected void clearDataInMemory() {
+		mDataLock.lock();
+		try {
+			super.clearDataInMemory();
+			mLruIndex.clear();
+			mReadIndex.clear();
+			if (mEncodedCache != null)
+				mEncodedCache.evictAll();
+		} finally {
+			mDataLock.unlock();
+		}
 	}
 
 	File getCachedFilepath(CacheKey key) throws SecurityException, IOException
 	{
 		// TODO: handle the switch between phone memory and SD card
 		assertFolderExists();
-		return new File(mCacheFolder, key.getFilename());
+		return new File(mShards.prepareFolder(key), key.getFilename());
 	}
 
 	public File getTempDir()
@@ -383,45 +736,79 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 	}
 
 	private long getCacheSize(LifeSpan lifeSpan) {
-		long result = 0;
-		mDataLock.lock();
-		try {
-			Iterator<Entry<CacheKey, CacheItem>> v = getMap().entrySet().iterator();
-			Entry<CacheKey, CacheItem> k;
-			while (v.hasNext()) {
-				k = v.next();
-				if (k.getValue().lifeSpan!=lifeSpan) continue;
-				result += k.getValue().getFileSize();
+		return mLruIndex.getTotalSize(lifeSpan);
+	}
+
+	private CacheItem getCacheOldestItem(LifeSpan lifeSpan) {
+		return mLruIndex.getOldest(lifeSpan);
+	}
+
+	/**
+	 * delete the file of a removed item, the space of packed items is recovered when their segment is compacted
+	 */
+	private void deleteStoredFile(CacheItem item) {
+		if (!item.isPacked())
+			item.path.delete();
+	}
+
+	private void checkPackedSegments() {
+		if (mCompactScheduled.compareAndSet(false, true))
+			scheduleCustomOperation(new CompactPackedSegments());
+	}
+
+	/**
+	 * @param liveSizes the size used by the items of each segment
+	 * @return the first segment that has less than {@link PackedStore#MIN_LIVE_RATIO} of its space used, null if there is none
+	 */
+	private File getSegmentToCompact(HashMap<File, Long> liveSizes) {
+		for (File segment : mPackedStore.getSegments()) {
+			if (mPackedStore.isActive(segment))
+				continue;
+			final Long liveSize = liveSizes.get(segment);
+			if (liveSize == null || liveSize < segment.length() * PackedStore.MIN_LIVE_RATIO) {
+				if (DEBUG_CACHE) LogManager.logger.i(LOG_TAG, "compact "+segment+" using "+liveSize+" of "+segment.length());
+				return segment;
 			}
-		} catch (Throwable e) {
-			// workaround to avoid locking mData during read/write in the DB
-			LogManager.logger.e(LOG_TAG, "getCacheSize failed", e);
-		} finally {
-			mDataLock.unlock();
 		}
-		return result;
+		return null;
 	}
 
-	private Entry<CacheKey, CacheItem> getCacheOldestEntry(LifeSpan lifeSpan) {
-		// LogManager.logger.d(TAG, "getCacheOldest in");
-		Entry<CacheKey, CacheItem> result = null;
-		for (Entry<CacheKey, CacheItem> entry : getMap().entrySet()) {
-			final CacheItem item = entry.getValue();
-			if (lifeSpan==item.lifeSpan && (result==null || result.getValue().lastAccessDate > item.lastAccessDate))
-				result = entry;
+	/**
+	 * move a packed item out of the segment being compacted, in the active segment
+	 */
+	private void moveOutOfSegment(File segment, CacheKey key, CacheItem item) {
+		if (!item.isPacked() || !segment.equals(item.path))
+			return;
+		try {
+			CacheItem moved = item.copyWithPackedLocation(mPackedStore.append(mPackedStore.read(item), item.URL));
+			mDataLock.lock();
+			try {
+				if (getMap().get(key) == item) // not replaced in the meantime
+					put(key, moved);
+			} finally {
+				mDataLock.unlock();
+			}
+		} catch (IOException e) {
+			LogManager.logger.w(LOG_TAG, "failed to move "+key+" out of "+segment, e);
+			mDataLock.lock();
+			try {
+				if (getMap().get(key) == item)
+					remove(key);
+			} finally {
+				mDataLock.unlock();
+			}
 		}
-		// LogManager.logger.e(TAG, "getCacheOldest out with "+result);
-		return result;
 	}
 
+	/**
+	 * remove the oldest items of a {@link LifeSpan} until its storage goes below {@link PictureCache#getCachePurgeTargetSize(LifeSpan)}
+	 * <p>
+	 * the purge is done in slices of {@link PictureCache#PURGE_SLICE_MS} on the DB thread and the data lock is only held to remove one item at a time
+	 */
 	private static class RemoveExpired implements AsynchronousDbOperation<Map.Entry<CacheKey,CacheItem>> {
 
 		private final LifeSpan lifeSpan;
 
-		RemoveExpired() {
-			this.lifeSpan = null;
-		}
-
 		RemoveExpired(LifeSpan cacheType) {
 			this.lifeSpan = cacheType;
 		}
@@ -429,169 +816,434 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 		@Override
 		public void runInMemoryDbOperation(AsynchronousDbHelper<Entry<CacheKey, CacheItem>> db) {
 			PictureCache cache = (PictureCache) db;
-			if (lifeSpan != null)
-				makeRoom(cache, lifeSpan);
-			else {
-				for (LifeSpan lifeSpan : LifeSpan.values())
-					makeRoom(cache, lifeSpan);
-			}
+			if (makeRoom(cache, lifeSpan))
+				cache.mPurgeScheduled[lifeSpan.ordinal()].set(false);
+			else
+				cache.scheduleCustomOperation(this); // finish later
 		}
 
-		private static void makeRoom(PictureCache cache, LifeSpan lifeSpan) {
+		/**
+		 * @return false if the slice time ran out before the purge was finished
+		 */
+		private static boolean makeRoom(PictureCache cache, LifeSpan lifeSpan) {
 			if (DEBUG_CACHE) LogManager.logger.i(LOG_TAG, "start makeRoom for "+lifeSpan);
+			final long sliceEnd = SystemClock.uptimeMillis() + PURGE_SLICE_MS;
 			try {
-				long TotalSize = cache.getCacheSize(lifeSpan);
 				int MaxSize = cache.getCacheMaxSize(lifeSpan);
-				if (MaxSize != 0 && TotalSize > MaxSize) {
-					// make room in the DB/cache for this new element
-					while (TotalSize > MaxSize) {
-						//if (type != k.getValue().type) continue;
-						//long deleted = 0;
-						Entry<CacheKey, CacheItem> entry;
+				if (MaxSize != 0) {
+					long TargetSize = Math.min(MaxSize, cache.getCachePurgeTargetSize(lifeSpan));
+					while (cache.getCacheSize(lifeSpan) > TargetSize) {
+						if (SystemClock.uptimeMillis() > sliceEnd) {
+							if (DEBUG_CACHE) LogManager.logger.i(LOG_TAG, "pause makeRoom for "+lifeSpan);
+							return false;
+						}
+
+						CacheItem item;
 						cache.mDataLock.lock();
 						try {
-							entry = cache.getCacheOldestEntry(lifeSpan);
-							if (entry == null)
+							CacheItem oldest = cache.getCacheOldestItem(lifeSpan);
+							if (oldest == null)
 								break;
+							if (DEBUG_CACHE) LogManager.logger.i(LOG_TAG, "remove "+oldest.lruKey+" from the cache for "+lifeSpan);
+							item = cache.remove(oldest.lruKey);
 						} finally {
 							cache.mDataLock.unlock();
 						}
 
-						if (DEBUG_CACHE) LogManager.logger.i(LOG_TAG, "remove "+entry+" from the cache for "+lifeSpan);
-						CacheItem item = cache.remove(entry.getKey());
-						if (item != null) {
-							File f = item.path;
-							if (f != null && f.exists()) {
-								long fSize = f.length();
-								if (f.delete()) {
-									TotalSize -= fSize;
-									//deleted += fSize;
-								}
-							}
-						}
-						//LogManager.logger.d(TAG, "makeroom");
+						if (item != null && item.path != null)
+							cache.deleteStoredFile(item);
 					}
 				}
 			} catch (NullPointerException e) {
 				LogManager.logger.w(LOG_TAG, "can't make room for type:"+lifeSpan,e);
 			}
 			if (DEBUG_CACHE) LogManager.logger.i(LOG_TAG, "finished makeRoom for "+lifeSpan);
+			cache.checkPackedSegments();
+			return true;
 		}
 	}
 
-	static String keyToBitmapCacheKey(CacheKey key, String url, PictureLoaderHandler loader) {
-		final StringBuilder bitmapKey = new StringBuilder(key.getUUID());
-		bitmapKey.append(url);
-		if (loader != null) {
-			if (loader.getStorageTransform() != null)
-				bitmapKey.append(loader.getStorageTransform().getVariantPostfix());
-			if (loader.getDisplayTransform() != null)
-				bitmapKey.append(loader.getDisplayTransform().getVariant());
+	/**
+	 * remove the items loaded from the DB/journal which file doesn't exist anymore and read the size of the files stored without it
+	 * <p>
+	 * done in slices of {@link PictureCache#PURGE_SLICE_MS} on the DB thread once the loading is finished, so it doesn't delay the startup
+	 */
+	private static class ReconcileFiles implements AsynchronousDbOperation<Map.Entry<CacheKey,CacheItem>> {
+
+		private Iterator<Map.Entry<CacheKey, CacheItem>> mItems;
+
+		@Override
+		public void runInMemoryDbOperation(AsynchronousDbHelper<Entry<CacheKey, CacheItem>> db) {
+			PictureCache cache = (PictureCache) db;
+			if (mItems == null) {
+				// scheduled in the constructor, the DB and journal are loaded now
+				cache.mDataLock.lock();
+				try {
+					cache.mChangedWhileLoading = null;
+				} finally {
+					cache.mDataLock.unlock();
+				}
+				cache.mIndexLoaded = true;
+				mItems = cache.mReadIndex.entrySet().iterator(); // safe to use while the cache is modified
+			}
+
+			final long sliceEnd = SystemClock.uptimeMillis() + PURGE_SLICE_MS;
+			while (mItems.hasNext()) {
+				if (SystemClock.uptimeMillis() > sliceEnd) {
+					cache.scheduleCustomOperation(this); // finish later
+					return;
+				}
+
+				Map.Entry<CacheKey, CacheItem> entry = mItems.next();
+				CacheItem item = entry.getValue();
+				if (item.path == null || !item.path.isFile()) {
+					LogManager.logger.w(LOG_TAG, "missing file for "+entry.getKey()+" "+item);
+					cache.mDataLock.lock();
+					try {
+						if (cache.getMap().get(entry.getKey()) == item) // not replaced in the meantime
+							cache.remove(entry.getKey());
+					} finally {
+						cache.mDataLock.unlock();
+					}
+				} else if (item.fileSize < 0) {
+					final long fileSize = item.path.length();
+					cache.mDataLock.lock();
+					try {
+						if (cache.getMap().get(entry.getKey()) == item) {
+							cache.mLruIndex.setFileSize(item, fileSize);
+							cache.storeItem(entry.getKey(), item);
+						}
+					} finally {
+						cache.mDataLock.unlock();
+					}
+				}
+			}
+			if (DEBUG_CACHE) LogManager.logger.i(LOG_TAG, "finished checking the cache files");
+			cache.notifyStorageSizeChanged(); // with the sizes that were unknown
+			cache.checkPackedSegments();
 		}
-		return bitmapKey.toString();
 	}
 
 	/**
-	 * 
-	 * @param URL
-	 * @param key
-	 * @param cookie TODO
-	 * @param itemDate use to store the previous item for the same {@link key}
-	 * @param loader
-	 * @param lifeSpan see {@link LifeSpan}
+	 * compact the packed segments with too much unused space, one segment at a time
+	 * <p>
+	 * the index is walked once to find a segment to compact and once more to move its items in the active segment,
+	 * in slices of {@link PictureCache#PURGE_SLICE_MS} on the DB thread
 	 */
-	void getPicture(String URL, CacheKey key, Object cookie, long itemDate, PictureLoaderHandler loader, LifeSpan lifeSpan)
-	{
+	private static class CompactPackedSegments implements AsynchronousDbOperation<Map.Entry<CacheKey,CacheItem>> {
+
+		private Iterator<Map.Entry<CacheKey, CacheItem>> mItems;
+		private HashMap<File, Long> mLiveSizes; // the size used by the items of each segment, during the first walk
+		private File mSegment; // the segment being emptied, during the second walk
+
+		@Override
+		public void runInMemoryDbOperation(AsynchronousDbHelper<Entry<CacheKey, CacheItem>> db) {
+			PictureCache cache = (PictureCache) db;
+			final long sliceEnd = SystemClock.uptimeMillis() + PURGE_SLICE_MS;
+			if (mItems == null) {
+				mItems = cache.mReadIndex.entrySet().iterator(); // safe to use while the cache is modified
+				mLiveSizes = new HashMap<File, Long>();
+			}
+
+			while (mItems.hasNext()) {
+				if (SystemClock.uptimeMillis() > sliceEnd) {
+					cache.scheduleCustomOperation(this); // finish later
+					return;
+				}
+
+				Map.Entry<CacheKey, CacheItem> entry = mItems.next();
+				final CacheItem item = entry.getValue();
+				if (mSegment != null)
+					cache.moveOutOfSegment(mSegment, entry.getKey(), item);
+				else if (item.isPacked()) {
+					Long size = mLiveSizes.get(item.path);
+					mLiveSizes.put(item.path, size==null ? item.fileSize : size + item.fileSize);
+				}
+			}
+
+			if (mSegment == null) {
+				mSegment = cache.getSegmentToCompact(mLiveSizes);
+				final boolean empty = mSegment != null && !mLiveSizes.containsKey(mSegment);
+				mLiveSizes = null;
+				if (mSegment == null) {
+					mItems = null;
+					cache.mCompactScheduled.set(false);
+					return;
+				}
+				if (!empty) {
+					mItems = cache.mReadIndex.entrySet().iterator();
+					cache.scheduleCustomOperation(this); // move its items
+					return;
+				}
+			} else {
+				// the new locations must be stored before the segment disappears
+				cache.writePendingChanges();
+			}
+
+			cache.mPackedStore.delete(mSegment);
+			mSegment = null;
+			mItems = null;
+			cache.scheduleCustomOperation(this); // there may be more
+		}
+	}
+
+	/**
+	 * load the items from the journal, the ones found in the SQLite DB are moved to the journal
+	 */
+	private static class LoadJournal implements AsynchronousDbOperation<Map.Entry<CacheKey,CacheItem>> {
+		@Override
+		public void runInMemoryDbOperation(AsynchronousDbHelper<Entry<CacheKey, CacheItem>> db) {
+			((PictureCache) db).loadJournal();
+		}
+	}
+
+	private static class WritePendingChanges implements AsynchronousDbOperation<Map.Entry<CacheKey,CacheItem>> {
+		@Override
+		public void runInMemoryDbOperation(AsynchronousDbHelper<Entry<CacheKey, CacheItem>> db) {
+			((PictureCache) db).writePendingChanges();
+		}
+	}
+
+	private static class RebuildJournal implements AsynchronousDbOperation<Map.Entry<CacheKey,CacheItem>> {
+		@Override
+		public void runInMemoryDbOperation(AsynchronousDbHelper<Entry<CacheKey, CacheItem>> db) {
+			((PictureCache) db).rebuildJournal();
+		}
+	}
+
+	private void loadJournal() {
+		HashMap<CacheKey, CacheItem> items = new HashMap<CacheKey, CacheItem>();
+		try {
+			mIndexJournal.read(items);
+		} catch (IOException e) {
+			LogManager.logger.e(LOG_TAG, "failed to read the cache journal, "+items.size()+" items recovered", e);
+		}
+
+		final boolean migrate;
 		mDataLock.lock();
 		try {
-			if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "getting picture "+URL+" into "+loader+" key:"+key);
-			if (TextUtils.isEmpty(URL)) {
-				// get the URL matching the UUID if we don't have a forced one
-				CacheItem v = getMap().get(key);
-				if (v!=null)
-					URL = v.URL;
-				//LogManager.logger.i("no URL specified for "+key+" using "+URL);
-			}
-			if (TextUtils.isEmpty(URL)) {
-				LogManager.logger.i(LOG_TAG, "no URL specified/known for "+key+" using default");
-				removePictureLoader(loader, null);
-				loader.drawDefaultPicture(null, postHandler, mBitmapCache);
-				return;
+			// the items loaded from PictureCachev2.sqlite are moved to the journal
+			migrate = mDbHasItems;
+			for (Entry<CacheKey, CacheItem> item : items.entrySet()) {
+				// the journal is more recent than the DB but not than the items stored since the start
+				if (!mChangedWhileLoading.contains(item.getKey()))
+					putInMemory(item.getKey(), item.getValue());
+			}
+			mLruIndex.sortByAccessDate();
+		} finally {
+			mDataLock.unlock();
+		}
+		if (DEBUG_CACHE) LogManager.logger.i(LOG_TAG, "loaded "+items.size()+" items from the journal, migrate:"+migrate);
+
+		if (migrate || mIndexJournal.needsRebuild(mReadIndex.size())) {
+			if (rebuildJournal() && migrate) {
+				try {
+					getWritableDatabase().delete(TABLE_NAME, null, null);
+				} catch (SQLException e) {
+					LogManager.logger.w(LOG_TAG, "failed to empty the migrated DB", e);
+				}
+			}
+		}
+	}
+
+	private void writePendingChanges() {
+		HashMap<CacheKey, CacheItem> changes = mPendingWrites.takeAll();
+		if (changes.isEmpty())
+			return;
+
+		for (Entry<CacheKey, CacheItem> change : changes.entrySet()) {
+			if (change.getValue() != IndexWriteBuffer.REMOVED) {
+				// the item may have been marked as accessed after it was replaced or removed
+				CacheItem current = mReadIndex.get(change.getKey());
+				change.setValue(current == null ? IndexWriteBuffer.REMOVED : current);
 			}
+		}
+
+		if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "writing "+changes.size()+" index changes");
+		if (mIndexJournal != null)
+			writeJournal(changes);
+		else
+			writeDatabase(changes);
+	}
 
-			//LogManager.logger.v(TAG, "load "+URL+" in "+target+" key:"+key);
-			String wasPreviouslyLoading = loader.setLoadingURL(URL, mBitmapCache); 
-			if (URL.equals(wasPreviouslyLoading)) {
-				if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, loader+" no need to draw anything");
-				return; // no need to do anything the image is the same or downloading for it
+	/**
+	 * write the changes in the DB in a single transaction
+	 */
+	private void writeDatabase(HashMap<CacheKey, CacheItem> changes) {
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			db.beginTransaction();
+			try {
+				for (Entry<CacheKey, CacheItem> change : changes.entrySet()) {
+					if (change.getValue() == IndexWriteBuffer.REMOVED)
+						db.delete(TABLE_NAME, getKeySelectClause(change.getKey()), getKeySelectArgs(change.getKey()));
+					else if (change.getValue().path == null)
+						LogManager.logger.w(LOG_TAG, "cache item has an empty path :"+change.getKey()+" / "+change.getValue());
+					else
+						db.replace(TABLE_NAME, null, getValuesFromData(change, db));
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
 			}
+		} catch (SQLException e) {
+			LogManager.logger.e(LOG_TAG, "failed to write "+changes.size()+" changes in the DB", e);
+		}
+	}
 
-			if (wasPreviouslyLoading!=null) {
-				// cancel the loading of the previous URL for this loader
-				mJobManager.cancelDownloadForLoader(loader, wasPreviouslyLoading);
+	private void writeJournal(HashMap<CacheKey, CacheItem> changes) {
+		try {
+			for (Entry<CacheKey, CacheItem> change : changes.entrySet()) {
+				if (change.getValue() == IndexWriteBuffer.REMOVED)
+					mIndexJournal.writeRemoval(change.getKey());
+				else if (change.getValue().path == null)
+					LogManager.logger.w(LOG_TAG, "cache item has an empty path :"+change.getKey()+" / "+change.getValue());
+				else
+					mIndexJournal.writeItem(change.getKey(), change.getValue());
 			}
+			mIndexJournal.flush();
+		} catch (IOException e) {
+			LogManager.logger.e(LOG_TAG, "failed to write "+changes.size()+" changes in the cache journal", e);
+		}
+
+		if (mIndexJournal.needsRebuild(mReadIndex.size()))
+			rebuildJournal();
+	}
+
+	/**
+	 * write a new journal with only the items currently in memory
+	 * <p>the changes done while it's running are written in the new journal by the {@link WritePendingChanges} operations that follow</p>
+	 * @return true if the journal was replaced
+	 */
+	private boolean rebuildJournal() {
+		try {
+			mIndexJournal.rebuild(mReadIndex.entrySet());
+			if (DEBUG_CACHE) LogManager.logger.i(LOG_TAG, "rebuilt the cache journal");
+			return true;
+		} catch (IOException e) {
+			LogManager.logger.e(LOG_TAG, "failed to rebuild the cache journal", e);
+			return false;
+		}
+	}
+
+	/**
+	 * start a purge of the {@link LifeSpan} storage if it went over {@link #getCacheMaxSize(LifeSpan)}
+	 * @param lifeSpan
+	 */
+	private void checkStorageSize(LifeSpan lifeSpan) {
+		final int maxSize = getCacheMaxSize(lifeSpan);
+		if (maxSize != 0 && getCacheSize(lifeSpan) > maxSize && mPurgeScheduled[lifeSpan.ordinal()].compareAndSet(false, true))
+			scheduleCustomOperation(new RemoveExpired(lifeSpan));
+	}
 
-			/*if (URL.startsWith("android.resource://")) {
-			URL = URL.substring(19);
-			int resId = Integer.valueOf(URL.substring(URL.indexOf('/')+1));
-			target.setImageResource(resId);
+	/**
+	 * lookup the picture in the memory and storage cache, no lock is held while decoding or drawing
+	 * @param URL
+	 * @param key
+	 * @param cookie TODO
+	 * @param itemDate use to store the previous item for the same {@link key}
+	 * @param loader
+	 * @param lifeSpan see {@link LifeSpan}
+	 */
+	void getPicture(String URL, CacheKey key, Object cookie, long itemDate, PictureLoaderHandler loader, LifeSpan lifeSpan)
+	{
+		if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "getting picture "+URL+" into "+loader+" key:"+key);
+		if (loader instanceof PrecacheImageLoader && SystemClock.uptimeMillis() < mPrefetchPausedUntil) {
+			if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "prefetching paused, skip "+URL);
+			return;
+		}
+		if (TextUtils.isEmpty(URL)) {
+			// get the URL matching the UUID if we don't have a forced one
+			CacheItem v = get(key);
+			if (v!=null)
+				URL = v.URL;
+			//LogManager.logger.i("no URL specified for "+key+" using "+URL);
+		}
+		if (TextUtils.isEmpty(URL)) {
+			LogManager.logger.i(LOG_TAG, "no URL specified/known for "+key+" using default");
+			removePictureLoader(loader, null);
+			loader.drawDefaultPicture(null, postHandler, mBitmapCache);
 			return;
-		}*/
+		}
 
-			key = getStoredKey(key, URL, itemDate);
+		//LogManager.logger.v(TAG, "load "+URL+" in "+target+" key:"+key);
+		String wasPreviouslyLoading = loader.setLoadingURL(URL, mBitmapCache); 
+		if (URL.equals(wasPreviouslyLoading)) {
+			if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, loader+" no need to draw anything");
+			return; // no need to do anything the image is the same or downloading for it
+		}
 
-			final String bitmapCacheKey = mBitmapCache!=null ? keyToBitmapCacheKey(key, URL, loader) : null;
-			if (mBitmapCache!=null) {
-				CacheableBitmapDrawable cachedBmp = mBitmapCache.get(bitmapCacheKey);
-				if (cachedBmp!=null) {
-					if (!cachedBmp.getBitmap().isRecycled()) {
-						if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "using cached bitmap for URL "+URL+" key:"+bitmapCacheKey);
-						loader.drawBitmap(cachedBmp, URL, cookie, postHandler, mBitmapCache);
-						return;
-					}
-					LogManager.logger.w(LOG_TAG, "try to draw bitmap "+key+" already recycled in "+loader+" URL:"+URL);
+		if (wasPreviouslyLoading!=null) {
+			// cancel the loading of the previous URL for this loader
+			mJobManager.cancelDownloadForLoader(loader, wasPreviouslyLoading);
+		}
+
+		/*if (URL.startsWith("android.resource://")) {
+		URL = URL.substring(19);
+		int resId = Integer.valueOf(URL.substring(URL.indexOf('/')+1));
+		target.setImageResource(resId);
+		return;
+	}*/
+
+		// an item stored with the older MD5 based key is migrated by the download job, not to block the UI thread
+		key = getStoredKey(key, URL, itemDate);
+
+		if (mMemoryCache!=null) {
+			BitmapDrawable cachedBmp = mMemoryCache.get(key, URL, loader.getDisplayVariant());
+			if (cachedBmp!=null) {
+				if (!cachedBmp.getBitmap().isRecycled()) {
+					if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "using cached bitmap for URL "+URL+" key:"+key);
+					markAccessed(key);
+					loader.drawBitmap(cachedBmp, URL, cookie, postHandler, mBitmapCache); // with the reference taken by get()
+					return;
 				}
+				LogManager.logger.w(LOG_TAG, "try to draw bitmap "+key+" already recycled in "+loader+" URL:"+URL);
+				RefCountedBitmapDrawable.release(cachedBmp);
 			}
 
-			File file = getCachedFile(key);
-			if (file!=null) {
-				if (!file.exists() || !file.isFile()) {
-					LogManager.logger.w(LOG_TAG, "File "+file+" disappeared for "+key);
-					remove(key);
-				}
-				else if (loader.canDirectLoad(file, postHandler)) {
-					try {
-						Bitmap bmp = BitmapFactory.decodeFile(file.getAbsolutePath());
-						if (bmp!=null) {
-							if (null != loader.getDisplayTransform())
-								bmp = loader.getDisplayTransform().transformBitmap(bmp);
-
-							Drawable cachedBmp = null;
-							if (mBitmapCache!=null && loader.canKeepBitmapInMemory(bmp))
-								cachedBmp = mBitmapCache.put(bitmapCacheKey, bmp);
-							if (cachedBmp==null)
-								cachedBmp = new BitmapDrawable(mContext.getResources(), bmp);
-							if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "using direct file for URL "+URL+" file:"+file);
-							loader.drawBitmap(cachedBmp, URL, cookie, postHandler, mBitmapCache);
-							return;
+			if (loader.getDisplayTransform()!=null && drawTransformedFromMemory(key, URL, cookie, loader, lifeSpan)) {
+				markAccessed(key);
+				return;
+			}
+		}
+
+		CacheItem cached = getCachedItem(key, URL); // its file was checked unless it's in the encoded memory cache
+		if (cached!=null) {
+			File file = cached.path;
+			// the segment of a packed item holds many other pictures
+			final long fileSize = cached.isPacked() ? cached.fileSize : file.length();
+			if (loader.canDirectLoad(file, fileSize, postHandler)) {
+				try {
+					Bitmap bmp = decodeItem(key, cached, null);
+					if (bmp!=null) {
+						if (null != loader.getDisplayTransform()) {
+							Bitmap decoded = bmp;
+							bmp = transformForDisplay(loader.getDisplayTransform(), decoded);
+							if (bmp != decoded)
+								releaseBitmap(decoded);
 						}
-					} catch (OutOfMemoryError e) {
-						loader.drawDefaultPicture(URL, postHandler, mBitmapCache);
-						LogManager.logger.w(LOG_TAG, "can't decode "+file,e);
-						ooHandler.onOutOfMemoryError(e);
+
+						BitmapDrawable cachedBmp = createDrawable(bmp);
+						if (mMemoryCache!=null && loader.canKeepBitmapInMemory(bmp))
+							mMemoryCache.put(key, URL, loader.getDisplayVariant(), lifeSpan, cachedBmp);
+						if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "using direct file for URL "+URL+" file:"+file);
+						loader.drawBitmap(RefCountedBitmapDrawable.acquire(cachedBmp), URL, cookie, postHandler, mBitmapCache);
 						return;
 					}
+				} catch (OutOfMemoryError e) {
+					loader.drawDefaultPicture(URL, postHandler, mBitmapCache);
+					LogManager.logger.w(LOG_TAG, "can't decode "+file,e);
+					ooHandler.onOutOfMemoryError(e);
+					return;
 				}
 			}
+		}
 
-			loader.drawDefaultPicture(URL, postHandler, mBitmapCache);
+		loader.drawDefaultPicture(URL, postHandler, mBitmapCache);
 
-			// we could not read from the cache, load the URL
-			if (key!=null)
-				mJobManager.addDownloadTarget(this, URL, cookie, loader, key, itemDate, lifeSpan);
-		} finally {
-			mDataLock.unlock();
-		}
+		// we could not read from the cache, load the URL
+		if (key!=null)
+			mJobManager.addDownloadTarget(this, URL, cookie, loader, key, itemDate, lifeSpan);
 	}
 
 	/**
@@ -676,25 +1328,23 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 	public boolean saveInGallery(String UUID, int width, boolean widthBased, boolean Rounded, StorageType extensionMode) throws IOException, SecurityException {
 		boolean succeeded = false;
 		CacheKey key = CacheKey.newUUIDBasedKey(UUID, width, widthBased, extensionMode, Rounded?"_r":null);
-		mDataLock.lock();
-		try {
-			CacheItem v = getMap().get(key);
-			if (v != null && v.path != null) {
-				if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
-					File dst = new File(getPictureDir(), key.getFilename());
+		CacheItem v = get(key);
+		if (v != null && v.path != null) {
+			if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+				File dst = new File(getPictureDir(), key.getFilename());
+				if (v.isPacked())
+					writePackedTo(v, dst);
+				else
 					FileUtils.copyFile(v.path, dst, LOG_TAG);
-					succeeded = true;
+				succeeded = true;
 
-					try {
-						GalleryScanner saver = new GalleryScanner(getContext());
-						saver.scan(dst);
-					} catch (ReceiverCallNotAllowedException e) {
-						LogManager.logger.w(LOG_TAG, "could not start the gallery scanning");
-					}
+				try {
+					GalleryScanner saver = new GalleryScanner(getContext());
+					saver.scan(dst);
+				} catch (ReceiverCallNotAllowedException e) {
+					LogManager.logger.w(LOG_TAG, "could not start the gallery scanning");
 				}
 			}
-		} finally {
-			mDataLock.unlock();
 		}
 		return succeeded;
 	}
@@ -702,11 +1352,16 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 	@Override
 	protected void onDataCleared() {
 		super.onDataCleared();
+		mPendingWrites.clear();
+		if (mIndexJournal != null)
+			scheduleCustomOperation(new RebuildJournal()); // with no items
 		try {
+			mPackedStore.reset();
 			FileUtils.deleteDirectory(mCacheFolder);
 			synchronized (mDirAsserted) {
 				mDirAsserted = Boolean.FALSE;
 			}
+			mShards.reset();
 			assertFolderExists();
 		} catch (SecurityException e) {
 			LogManager.logger.e(LOG_TAG, "clearCache exception", e);
@@ -715,22 +1370,57 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 		}
 	}
 
-	private CacheItem getCacheItem(String UUID, int Height, boolean widthBased, boolean rounded) {
-		CacheKey key = CacheKey.newUUIDBasedKey(UUID, Height, widthBased, StorageType.AUTO, rounded?"_r":null);
-		return getMap().get(key);
+	/**
+	 * @return the path of the picture file, a packed picture is moved to its own file first
+	 */
+	protected String getCachePath(String UUID, int height, boolean widthBased, boolean rounded) {
+		CacheKey key = CacheKey.newUUIDBasedKey(UUID, height, widthBased, StorageType.AUTO, rounded?"_r":null);
+		CacheItem cacheItem = get(key);
+		if (cacheItem != null && cacheItem.isPacked())
+			cacheItem = unpack(key, cacheItem);
+		if (cacheItem != null) {
+			File file = cacheItem.path;
+			if (file != null && file.exists())
+				return file.getAbsolutePath();
+		}
+		return null;
 	}
 
-	protected String getCachePath(String UUID, int height, boolean widthBased, boolean rounded) {
-		mDataLock.lock();
+	private void writePackedTo(CacheItem item, File dst) throws IOException {
+		FileOutputStream out = new FileOutputStream(dst, false);
 		try {
-			CacheItem cacheItem = getCacheItem(UUID, height, widthBased, rounded);
-			if (cacheItem != null) {
-				File file = cacheItem.path;
-				if (file != null && file.exists())
-					return file.getAbsolutePath();
-			}
+			ByteBuffer data = mPackedStore.read(item);
+			FileChannel channel = out.getChannel();
+			while (data.hasRemaining())
+				channel.write(data);
 		} finally {
-			mDataLock.unlock();
+			out.close();
+		}
+	}
+
+	/**
+	 * copy a packed picture in its own file and use it for that key
+	 * @return the item with its own file, null if it could not be copied
+	 */
+	private CacheItem unpack(CacheKey key, CacheItem item) {
+		try {
+			File dst = getCachedFilepath(key);
+			writePackedTo(item, dst);
+			CacheItem unpacked = item.copyWithNewPath(dst);
+			mDataLock.lock();
+			try {
+				if (getMap().get(key) == item) { // not replaced in the meantime
+					put(key, unpacked);
+					return unpacked;
+				}
+			} finally {
+				mDataLock.unlock();
+			}
+			dst.delete();
+		} catch (SecurityException e) {
+			LogManager.logger.w(LOG_TAG, "can't unpack "+key, e);
+		} catch (IOException e) {
+			LogManager.logger.w(LOG_TAG, "can't unpack "+key, e);
 		}
 		return null;
 	}
@@ -746,6 +1436,13 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 			if (v != null) {
 				LogManager.logger.v(LOG_TAG, "Copy "+srcKey+" to "+dstKey);
 				File src = v.path;
+				if (v.isPacked()) {
+					// the picture stays where it is
+					remove(srcKey); // that key is not valid anymore
+					v = v.copyWithPackedLocation(v);
+					v.lifeSpan = lifeSpan;
+					return put(dstKey, v) != null;
+				}
 				if (src != null && src.exists()) {
 					File dst = getCachedFilepath(dstKey);
 					dst.delete();
@@ -767,11 +1464,74 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 		return false;
 	}
 
+	/**
+	 * release memory used by the cache, to call from {@link android.content.ComponentCallbacks2#onTrimMemory(int)} so the memory is
+	 * released before it runs out rather than after an {@link OutOfMemoryError}
+	 * <ul>
+	 * <li>from TRIM_MEMORY_RUNNING_MODERATE the pictures only held with soft references and the Bitmaps kept for reuse are dropped</li>
+	 * <li>from TRIM_MEMORY_RUNNING_LOW the encoded pictures in memory are halved</li>
+	 * <li>from TRIM_MEMORY_RUNNING_CRITICAL the Bitmaps not pinned by a view on screen are released</li>
+	 * <li>with TRIM_MEMORY_RUNNING_CRITICAL and from TRIM_MEMORY_MODERATE the encoded pictures in memory are all released
+	 * and the loading in {@link PrecacheImageLoader} is paused for a while</li>
+	 * </ul>
+	 * the pending changes of the index are written at any level, the process may be killed soon after, see {@link #flushPendingWrites()}
+	 * @param level the level given to onTrimMemory()
+	 */
+	public void trimMemory(int level) {
+		flushPendingWrites();
+
+		if (mMemoryCache == null)
+			return;
+
+		final boolean critical = level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_MODERATE;
+		if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+			final int dropped = mMemoryCache.evictSoftReferences();
+			final long pooled = mBitmapPool.clear();
+			onTrimStep(TRIM_STEP_SOFT, level, "dropped "+dropped+" soft referenced pictures and "+pooled+" bytes of reusable Bitmaps");
+		}
+		if (level >= TRIM_MEMORY_RUNNING_LOW) {
+			final long freed = mEncodedCache.trimToSize(critical ? 0 : mEncodedCache.getSize() / 2);
+			onTrimStep(TRIM_STEP_ENCODED, level, "freed "+freed+" bytes of encoded pictures");
+		}
+		if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+			final long freed = mMemoryCache.trimToSize(0);
+			onTrimStep(TRIM_STEP_BITMAPS, level, "freed "+freed+" bytes of Bitmaps");
+		}
+		if (critical) {
+			mPrefetchPausedUntil = SystemClock.uptimeMillis() + PREFETCH_PAUSE_MS;
+			onTrimStep(TRIM_STEP_PREFETCH, level, "paused prefetching for "+PREFETCH_PAUSE_MS+"ms");
+		}
+	}
+
+	private void onTrimStep(int step, int level, String details) {
+		synchronized (mTrimCounts) {
+			++mTrimCounts[step];
+		}
+		LogManager.logger.i(LOG_TAG, "trimMemory("+level+") "+details);
+	}
+
+	/**
+	 * @return the state of the memory caches and how many times each step of {@link #trimMemory(int)} was done, for debugging
+	 */
+	public String getMemoryStats() {
+		StringBuilder stats = new StringBuilder();
+		stats.append(mMemoryCache).append(" encoded:").append(mEncodedCache==null ? 0 : mEncodedCache.getSize());
+		stats.append(' ').append(mBitmapPool);
+		synchronized (mTrimCounts) {
+			stats.append(" trims soft:").append(mTrimCounts[TRIM_STEP_SOFT])
+			.append(" encoded:").append(mTrimCounts[TRIM_STEP_ENCODED])
+			.append(" bitmaps:").append(mTrimCounts[TRIM_STEP_BITMAPS])
+			.append(" prefetch:").append(mTrimCounts[TRIM_STEP_PREFETCH]);
+		}
+		return stats.toString();
+	}
+
 	/**
 	 * indicate that the values returned by {@link #getCacheMaxSize(LifeSpan)} have changed
 	 */
 	protected void notifyStorageSizeChanged() {
-		scheduleCustomOperation(new RemoveExpired());
+		for (LifeSpan lifeSpan : LifeSpan.values())
+			checkStorageSize(lifeSpan);
 	}
 
 	@Override
@@ -793,16 +1553,40 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 					LogManager.logger.i(LOG_TAG, "tried to save a null bitmap "+variant.key+" from "+url+" using "+drawable);
 					continue;
 				}
-				FileOutputStream fos = new FileOutputStream(variant.path, false);
-				bmp.compress(variant.key.getCompression(), variant.key.getCompRatio(), fos);
-				fos.close();
+				ByteArrayOutputStream data = new ByteArrayOutputStream();
+				bmp.compress(variant.key.getCompression(), variant.key.getCompRatio(), data);
+				CacheItem packed = null;
+				final int packedMaxSize = getPackedMaxSize(lifeSpan);
+				if (packedMaxSize > 0 && data.size() <= packedMaxSize)
+					packed = mPackedStore.append(data, url);
+				else {
+					FileOutputStream fos = new FileOutputStream(variant.path, false);
+					data.writeTo(fos);
+					fos.close();
+				}
+				if (mEncodedCache != null && mEncodedCache.accepts(data.size()))
+					mEncodedCache.put(variant.key, lifeSpan, ByteBuffer.wrap(data.toByteArray()));
 
-				if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "stored "+variant.key+" from "+url+" as "+variant.path); 
+				if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "stored "+variant.key+" from "+url+" as "+(packed==null ? variant.path : packed.getStoredPath())); 
 
 				mDataLock.lock();
 				try {
 					CacheItem val = getMap().get(variant.key);
-					if (val != null) {
+					if (val != null && (packed != null || val.isPacked() || !url.equals(val.URL) || !val.path.equals(variant.path))) {
+						// the picture is stored somewhere else now, like in its folder rather than the flat layout, or it's a new picture for that key
+						CacheItem replacement = packed;
+						if (replacement == null) {
+							replacement = new CacheItem(variant.path, url);
+							replacement.fileSize = variant.path.length();
+						}
+						replacement.remoteDate = Math.max(val.remoteDate, remoteDate);
+						replacement.lifeSpan = val.lifeSpan.compare(lifeSpan) < 0 ? lifeSpan : val.lifeSpan;
+						replacement.lastAccessDate = System.currentTimeMillis();
+						put(variant.key, replacement);
+						if (!val.path.equals(replacement.path))
+							deleteStoredFile(val);
+						val = replacement;
+					} else if (val != null) {
 						if (val.remoteDate < remoteDate)
 							val.remoteDate = remoteDate;
 
@@ -810,13 +1594,20 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 							val.lifeSpan = lifeSpan;
 
 						val.lastAccessDate = System.currentTimeMillis();
+						mLruIndex.setFileSize(val, variant.path.length());
+						mLruIndex.touch(val);
 						notifyItemChanged(variant.key);
 						/*if (!changed && url.equals(val.URL))
 							LogManager.logger.v(TAG, "image " + key.toString()+" unchanged");
 						else
 							LogManager.logger.v(TAG, "image " + key.toString()+" already exists, adjusting the touitDate:"+val.touitID+" bmpIsNew:"+bmpIsNew+" rbmpIsNew:"+rbmpIsNew+" url:"+url);*/
 					} else {
-						val = new CacheItem(variant.path, url);
+						if (packed != null)
+							val = packed;
+						else {
+							val = new CacheItem(variant.path, url);
+							val.fileSize = variant.path.length();
+						}
 						val.remoteDate = remoteDate;
 						val.lifeSpan = lifeSpan;
 						val.lastAccessDate = System.currentTimeMillis();
@@ -824,7 +1615,7 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 						put(variant.key, val);
 					}
 
-					fileSizeAdded += variant.path.length();
+					fileSizeAdded += val.fileSize;
 				} finally {
 					mDataLock.unlock();
 				}
@@ -837,21 +1628,36 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 
 		//LogManager.logger.i("BitmapLoaded outFile:"+outFile);
 		if (fileSizeAdded != 0) {
-			final boolean needsPurge;
-			if (lifeSpan == LifeSpan.LONGTERM)
-				needsPurge = (mPurgeCounterLongterm.incrementAndGet() > MIN_ADD_BEFORE_PURGE);
-			else if (lifeSpan == LifeSpan.SHORTTERM)
-				needsPurge = (mPurgeCounterShortterm.incrementAndGet() > MIN_ADD_BEFORE_PURGE);
-			else
-				needsPurge = false;
+			// the size of any LifeSpan may have grown with existing items getting a new file
+			for (LifeSpan storedLifeSpan : LifeSpan.values())
+				checkStorageSize(storedLifeSpan);
+		}
+	}
+
+	/**
+	 * move the item stored with the MD5 based key URL based keys used to have, done when the URL is used rather than all at once
+	 * @param key The key that will be used for the URL
+	 * @param URL The URL of the picture to load
+	 * <p>it takes the data lock and renames files, it's not called from the UI thread</p>
+	 */
+	void migrateLegacyUrlKey(CacheKey key, String URL) {
+		if (key == null || !mIndexLoaded || containsKey(key) || !key.isUrlBasedKey(URL))
+			return;
 
-			if (needsPurge) {
-				if (lifeSpan == LifeSpan.LONGTERM)
-					mPurgeCounterLongterm.set(0);
-				else if (lifeSpan == LifeSpan.SHORTTERM)
-					mPurgeCounterShortterm.set(0);
-				scheduleCustomOperation(new RemoveExpired(lifeSpan));
+		try {
+			CacheKey legacyKey = key.copyWithLegacyUrlUuid(URL);
+			CacheItem legacyItem = get(legacyKey);
+			if (legacyItem != null) {
+				mDataLock.lock();
+				try {
+					if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, "migrate "+legacyKey+" to "+key);
+					moveCachedFiles(legacyKey, key, legacyItem.lifeSpan);
+				} finally {
+					mDataLock.unlock();
+				}
 			}
+		} catch (NoSuchAlgorithmException e) {
+			LogManager.logger.d(LOG_TAG, "can't migrate the old key of "+URL, e);
 		}
 	}
 
@@ -865,68 +1671,288 @@ public abstract class PictureCache extends InMemoryHashmapDb<CacheKey,CacheItem>
 	 */
 	private CacheKey getStoredKey(CacheKey key, String URL, long itemDate) {
 		if (key != null) {
-			mDataLock.lock();
-			try {
-				CacheItem v = getMap().get(key);
+			CacheItem v = get(key);
 
-				//if (URL!=null && !URL.contains("/profile_images/"))
-				if (v != null) {
-					if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" found cache item "+v+" for key "+key+" URL:"+URL);
-					try {
-						if (URL != null && !URL.equals(v.URL)) {
-							// the URL for the cached item changed
-							if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" changed from "+v.URL+" to "+URL+" remoteDate:"+v.remoteDate+" was "+itemDate);
-							if (v.remoteDate <= itemDate) { // '=' favor the newer url when dates are 0
-								// the item in the Cache is older than this request, the image changed for a newer one
-								// we need to mark the old one as short term with a UUID that has the picture ID inside
-								String deprecatedUUID = getOldPicUUID(key.getUUID(), v.URL);
-								CacheKey oldVersionKey = key.copyWithNewUuid(deprecatedUUID);
-								// move the current content to the deprecated key
-								moveCachedFiles(key, oldVersionKey, LifeSpan.SHORTTERM);
-								if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" moved to "+oldVersionKey);
-							} else {
-								// use the old image from the cache with that URL
-								String dstUUID = getOldPicUUID(key.getUUID(), URL);
-								key = key.copyWithNewUuid(dstUUID);
-								if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" will be used for that old version");
+			//if (URL!=null && !URL.contains("/profile_images/"))
+			if (v != null) {
+				if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" found cache item "+v+" for key "+key+" URL:"+URL);
+				try {
+					if (URL != null && !URL.equals(v.URL)) {
+						// the URL for the cached item changed
+						if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" changed from "+v.URL+" to "+URL+" remoteDate:"+v.remoteDate+" was "+itemDate);
+						if (v.remoteDate <= itemDate) { // '=' favor the newer url when dates are 0
+							// the item in the Cache is older than this request, the image changed for a newer one
+							// we need to mark the old one as short term with a UUID that has the picture ID inside
+							if (!mIndexLoaded) {
+								// don't wait for the whole DB loading, the old version is not kept
+								// getCachedItem() won't return it for this URL so the new picture is downloaded in its place
+								if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" not moved during the loading");
+								return key;
+							}
+							mDataLock.lock();
+							try {
+								// another thread may have moved it already
+								v = getMap().get(key);
+								if (v != null && !URL.equals(v.URL)) {
+									String deprecatedUUID = getOldPicUUID(key.getUUID(), v.URL);
+									CacheKey oldVersionKey = key.copyWithNewUuid(deprecatedUUID);
+									// move the current content to the deprecated key
+									moveCachedFiles(key, oldVersionKey, LifeSpan.SHORTTERM);
+									if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" moved to "+oldVersionKey);
+								}
+							} finally {
+								mDataLock.unlock();
 							}
+						} else {
+							// use the old image from the cache with that URL
+							String dstUUID = getOldPicUUID(key.getUUID(), URL);
+							key = key.copyWithNewUuid(dstUUID);
+							if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" will be used for that old version");
 						}
-					} catch (SecurityException e) {
-						LogManager.logger.e(LOG_TAG, "getPicture exception:" + e.getMessage(), e);
-					} catch (OutOfMemoryError e) {
-						LogManager.logger.w(LOG_TAG, "Could not decode image " + URL, e);
-						ooHandler.onOutOfMemoryError(e);
 					}
+				} catch (SecurityException e) {
+					LogManager.logger.e(LOG_TAG, "getPicture exception:" + e.getMessage(), e);
+				} catch (OutOfMemoryError e) {
+					LogManager.logger.w(LOG_TAG, "Could not decode image " + URL, e);
+					ooHandler.onOutOfMemoryError(e);
 				}
-				//else LogManager.logger.i(key.toString()+" not found in "+mData.size()+" cache elements");
-			} finally {
-				mDataLock.unlock();
 			}
+			//else LogManager.logger.i(key.toString()+" not found in "+mData.size()+" cache elements");
 		}
 		return key;
 	}
 
-	File getCachedFile(CacheKey key) {
+	/**
+	 * @param URL the URL of the picture to load, an item stored for another URL is an older version that is not returned
+	 * @return the item of that key if its file exists, before the index is loaded it may be an item that is not in the cache yet
+	 */
+	CacheItem getCachedItem(CacheKey key, String URL) {
 		//if (URL!=null && !URL.contains("/profile_images/"))
 		//LogManager.logger.v(TAG, " getPicture URL:"+URL + " key:"+key);
 		if (key != null) {
-			mDataLock.lock();
-			try {
-				CacheItem v = getMap().get(key);
+			CacheItem v = get(key);
 
-				//if (URL!=null && !URL.contains("/profile_images/"))
-				if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" found cache item "+v);
-				if (null!=v && null!=v.path && v.path.exists() && v.path.isFile()) {
-					return v.path;
+			//if (URL!=null && !URL.contains("/profile_images/"))
+			if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" found cache item "+v);
+			if (null!=v && null!=URL && null!=v.URL && !URL.equals(v.URL)) {
+				// the URL changed before the index was loaded and the old version was not moved, it has to be downloaded again
+				if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" stored for "+v.URL+" not "+URL);
+				return null;
+			}
+			if (null!=v && null!=v.path && mIndexLoaded && mShards.isLegacyFile(v.path))
+				scheduleShardMove(key); // the file stays usable where it is until it's moved
+			if (null!=v && null!=v.path && ((mEncodedCache!=null && mEncodedCache.contains(key)) || (v.path.exists() && v.path.isFile()))) {
+				markAccessed(key, v);
+				return v;
+			}
+			if (null==v && !mIndexLoaded) {
+				// the item may not be loaded from the DB yet, its file has a known name
+				try {
+					File file = new File(mShards.getFolder(key), key.getFilename());
+					if (!file.isFile())
+						file = new File(mCacheFolder, key.getFilename()); // not moved in its folder yet
+					if (file.isFile()) {
+						if (DEBUG_CACHE) LogManager.logger.v(LOG_TAG, key+" using "+file+" before the DB is loaded");
+						return new CacheItem(file, null);
+					}
+				} catch (SecurityException e) {
+					LogManager.logger.w(LOG_TAG, "can't access the cache folder for "+key, e);
 				}
-				//else LogManager.logger.i(key.toString()+" not found in "+mData.size()+" cache elements");
-			} finally {
-				mDataLock.unlock();
 			}
+			//else LogManager.logger.i(key.toString()+" not found in "+mData.size()+" cache elements");
 		}
 		return null;
 	}
 
+	/**
+	 * @return the {@link StableBitmapTransform} cost hint of the transform, transforms without a hint are considered costly
+	 */
+	static int getTransformCost(BitmapTransform transform) {
+		if (transform instanceof StableBitmapTransform)
+			return ((StableBitmapTransform) transform).getCost();
+		return StableBitmapTransform.COST_DRAW;
+	}
+
+	/**
+	 * apply a display transform, a {@link BitmapTransformChain} draws in a Bitmap from the reuse pool
+	 * @return the transformed Bitmap, may be the source
+	 */
+	Bitmap transformForDisplay(BitmapTransform transform, Bitmap source) {
+		if (transform instanceof BitmapTransformChain && mBitmapPool != null)
+			return ((BitmapTransformChain) transform).transformBitmap(source, mBitmapPool);
+		return transform.transformBitmap(source);
+	}
+
+	/**
+	 * draw the display transform of the plain picture if it's in memory, rather than decoding it again
+	 * @return true if the picture was drawn
+	 */
+	private boolean drawTransformedFromMemory(CacheKey key, String URL, Object cookie, PictureLoaderHandler loader, LifeSpan lifeSpan) {
+		final BitmapDrawable source = mMemoryCache.get(key, URL, null);
+		if (source==null)
+			return false;
+		try {
+			if (source.getBitmap().isRecycled())
+				return false;
+
+			final BitmapTransform transform = loader.getDisplayTransform();
+			if (getTransformCost(transform)==StableBitmapTransform.COST_NONE) {
+				// the result is the same Bitmap, no need to keep it twice
+				loader.drawBitmap(RefCountedBitmapDrawable.acquire(source), URL, cookie, postHandler, mBitmapCache);
+				return true;
+			}
+
+			final Bitmap bmp = transformForDisplay(transform, source.getBitmap());
+			if (bmp==null)
+				return false;
+			final BitmapDrawable transformed = bmp==source.getBitmap() ? source : createDrawable(bmp);
+			if (transformed!=source && loader.canKeepBitmapInMemory(bmp))
+				mMemoryCache.put(key, URL, loader.getDisplayVariant(), lifeSpan, transformed);
+			if (DEBUG_CACHE) LogManager.logger.d(LOG_TAG, "using transformed bitmap in memory for URL "+URL+" key:"+key);
+			loader.drawBitmap(RefCountedBitmapDrawable.acquire(transformed), URL, cookie, postHandler, mBitmapCache);
+			return true;
+		} catch (OutOfMemoryError e) {
+			ooHandler.onOutOfMemoryError(e);
+			return false;
+		} finally {
+			RefCountedBitmapDrawable.release(source);
+		}
+	}
+
+	/**
+	 * decode the picture of a cached item from the encoded memory cache or else from a memory mapping of its own file
+	 * or of its slice of a packed segment, the encoded picture read is kept in memory
+	 * @param key the key of the item
+	 * @param item the item found with {@link #getCachedItem(CacheKey, String)}
+	 * @param options the decoding options, may be null
+	 * @return the decoded Bitmap or null if it could not be decoded
+	 */
+	Bitmap decodeItem(CacheKey key, CacheItem item, BitmapFactory.Options options) {
+		if (mEncodedCache != null) {
+			ByteBuffer encoded = mEncodedCache.get(key);
+			if (encoded != null)
+				return decodeEncoded(encoded, options);
+		}
+
+		try {
+			ByteBuffer data = item.isPacked() ? mPackedStore.read(item) : MappedFile.map(item.path);
+			if (mEncodedCache != null && mEncodedCache.accepts(data.remaining())) {
+				mEncodedCache.put(key, item.lifeSpan, data.duplicate());
+				ByteBuffer encoded = mEncodedCache.get(key);
+				if (encoded != null)
+					return decodeEncoded(encoded, options); // decode from memory rather than from the mapping
+			}
+			return decode(data, options);
+		} catch (IOException e) {
+			LogManager.logger.w(LOG_TAG, "can't read picture "+item, e);
+			return null;
+		}
+	}
+
+	private Bitmap decodeEncoded(ByteBuffer encoded, BitmapFactory.Options options) {
+		try {
+			return decode(encoded, options);
+		} finally {
+			mEncodedCache.release(encoded);
+		}
+	}
+
+	/**
+	 * decode in the memory of a Bitmap released by the views when possible
+	 * @param options the decoding options, may be null, the Bitmaps are not reused when there are options
+	 */
+	private Bitmap decode(ByteBuffer data, BitmapFactory.Options options) {
+		if (options == null && mBitmapPool != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+			return mBitmapPool.decode(data);
+		return MappedFile.decode(data, options);
+	}
+
+	/**
+	 * @return a drawable for a Bitmap decoded by the cache, its Bitmap is reused when nothing references it anymore
+	 */
+	BitmapDrawable createDrawable(Bitmap bitmap) {
+		return new RefCountedBitmapDrawable(mContext.getResources(), bitmap, mBitmapPool);
+	}
+
+	/**
+	 * give back a Bitmap decoded by the cache that nothing else references, like the source of a transformation
+	 */
+	void releaseBitmap(Bitmap bitmap) {
+		if (mBitmapPool != null)
+			mBitmapPool.put(bitmap);
+		else
+			bitmap.recycle();
+	}
+
+	/**
+	 * move the file of an item from the flat layout in its folder on the DB thread, so the lookups don't wait for the renaming
+	 */
+	private void scheduleShardMove(CacheKey key) {
+		if (mPendingShardMoves.putIfAbsent(key, Boolean.TRUE) == null)
+			scheduleCustomOperation(new MoveToShard(key));
+	}
+
+	private static class MoveToShard implements AsynchronousDbOperation<Map.Entry<CacheKey,CacheItem>> {
+		private final CacheKey mKey;
+
+		MoveToShard(CacheKey key) {
+			this.mKey = key;
+		}
+
+		@Override
+		public void runInMemoryDbOperation(AsynchronousDbHelper<Entry<CacheKey, CacheItem>> db) {
+			PictureCache cache = (PictureCache) db;
+			try {
+				cache.moveToShard(mKey);
+			} finally {
+				cache.mPendingShardMoves.remove(mKey);
+			}
+		}
+	}
+
+	/**
+	 * move the file of an item from the flat layout in its folder, run on the DB thread
+	 */
+	private void moveToShard(CacheKey key) {
+		mDataLock.lock();
+		try {
+			CacheItem item = getMap().get(key);
+			if (item == null || item.path == null || !mShards.isLegacyFile(item.path))
+				return; // already moved or removed
+
+			File dst = new File(mShards.prepareFolder(key), item.path.getName());
+			if (!item.path.renameTo(dst)) {
+				LogManager.logger.w(LOG_TAG, "failed to move "+item.path+" to "+dst);
+				return;
+			}
+			put(key, item.copyWithNewPath(dst));
+		} catch (SecurityException e) {
+			LogManager.logger.w(LOG_TAG, "can't move "+key+" in its folder", e);
+		} finally {
+			mDataLock.unlock();
+		}
+	}
+
+	private void markAccessed(CacheKey key) {
+		if (key != null) {
+			CacheItem item = get(key);
+			if (item != null)
+				markAccessed(key, item);
+		}
+	}
+
+	/**
+	 * set the access date of the item without locking, it's moved in the LRU list when it's found during a purge
+	 * and stored with the other index changes once per {@link #ACCESS_DATE_STORE_PERIOD}
+	 */
+	private void markAccessed(CacheKey key, CacheItem item) {
+		final long now = System.currentTimeMillis();
+		final long previous = item.lastAccessDate;
+		item.lastAccessDate = now;
+		if (now / ACCESS_DATE_STORE_PERIOD != previous / ACCESS_DATE_STORE_PERIOD)
+			storeItem(key, item);
+	}
+
 	public Context getContext() {
 		return mContext;
 	}
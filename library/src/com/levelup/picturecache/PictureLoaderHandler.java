@@ -37,6 +37,9 @@ public abstract class PictureLoaderHandler {
 	 * Called when the downloaded {@link Bitmap} should be displayed 
 	 * <p>
 	 * This method may be called outside of the UI thread</p>
+	 * <p>
+	 * The loader gets a reference on a {@link RefCountedBitmapDrawable} to release with {@link RefCountedBitmapDrawable#release(Drawable)}
+	 * once it's not displayed anymore, its Bitmap is then reused for other pictures</p>
 	 * 
 	 * @param bmp Drawable to display
 	 * @param url URL corresponding to the bitmap
@@ -58,6 +61,18 @@ public abstract class PictureLoaderHandler {
 	protected BitmapTransform getDisplayTransform() {
 		return mBitmapTransform;
 	}
+
+	/**
+	 * @return the variant of the display transform used in the memory cache key, computed once
+	 */
+	String getDisplayVariant() {
+		if (mDisplayVariant==null) {
+			final BitmapTransform displayTransform = getDisplayTransform();
+			if (displayTransform!=null)
+				mDisplayVariant = displayTransform.getVariant();
+		}
+		return mDisplayVariant;
+	}
 	
 	/**
 	 * called to tell the loader which URL is being loaded in the target
@@ -71,7 +86,12 @@ public abstract class PictureLoaderHandler {
 	 * @return
 	 */
 	abstract protected String getLoadingURL();
-	abstract protected boolean canDirectLoad(File file, UIHandler uiHandler);
+	/**
+	 * @param file the file of the picture, it may also hold other pictures when it's packed
+	 * @param fileSize the size of the stored picture in bytes
+	 * @return true if the picture can be decoded in the calling thread rather than in a download job
+	 */
+	abstract protected boolean canDirectLoad(File file, long fileSize, UIHandler uiHandler);
 
 	protected boolean isDownloadAllowed() {
 		return true;
@@ -79,14 +99,15 @@ public abstract class PictureLoaderHandler {
 
 	protected final BitmapTransform mBitmapTransform;
 	protected final StorageTransform mStorageTransform;
+	private String mDisplayVariant;
 
 	@Override
 	public boolean equals(Object o) {
 		if (this==o) return true;
 		if (!(o instanceof PictureLoaderHandler)) return false;
 		PictureLoaderHandler loader = (PictureLoaderHandler) o;
-		return (mBitmapTransform==null && loader.mBitmapTransform==null) || (mBitmapTransform!=null && mBitmapTransform.equals(loader))
-				&& (mStorageTransform==null && loader.mStorageTransform==null) || (mStorageTransform!=null && mStorageTransform.equals(loader));
+		return ((mBitmapTransform==null && loader.mBitmapTransform==null) || (mBitmapTransform!=null && mBitmapTransform.equals(loader.mBitmapTransform)))
+				&& ((mStorageTransform==null && loader.mStorageTransform==null) || (mStorageTransform!=null && mStorageTransform.equals(loader.mStorageTransform)));
 	}
 	
 	@Override
@@ -95,15 +116,14 @@ public abstract class PictureLoaderHandler {
 	}
 
 	/**
-	 * Tell if the downloaded Bitmap can be kept in memory for later use (not recommended for large bitmaps)
-	 * <p>By default only allow bitmaps smaller than 1MB in memory</p>
-	 * <p>A {@link BitmapLruCache} must be provided in the {@link PictureCache} constructor</p>
+	 * Tell if the downloaded Bitmap can be kept in memory for later use
+	 * <p>By default all bitmaps are proposed to the memory cache, which only keeps the large ones compared to its size
+	 * when they are used again, see {@link BitmapMemoryCache}</p>
+	 * <p>A memory cache size must be provided in the {@link PictureCache} constructor</p>
 	 * @param bitmap The bitmap that should be kept in memory
-	 * @return
+	 * @return false to never keep it in memory
 	 */
 	public boolean canKeepBitmapInMemory(final Bitmap bitmap) {
-		if (bitmap==null)
-			return false;
-		return bitmap.getRowBytes() * bitmap.getHeight() < PictureCache.MAXBITMAP_IN_MEMORY;
+		return bitmap!=null;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+package com.levelup.picturecache;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+/**
+ * a drawable of a decoded picture that counts who still uses its Bitmap: the memory cache, each view displaying it
+ * and each call to {@link PictureLoaderHandler} drawBitmap() not displayed yet
+ * <p>
+ * when the last reference is released the Bitmap goes in the {@link BitmapPool} to decode other pictures in its memory
+ * <p>
+ * a drawable that is never acquired is left to the GC, so a loader that doesn't release its drawables only loses the reuse
+ * <p>
+ * a drawable displayed in a view is also pinned so the {@link BitmapMemoryCache} doesn't push it out while it's on screen
+ */
+public class RefCountedBitmapDrawable extends BitmapDrawable {
+
+	private final BitmapPool mPool;
+	private int mRefCount; // guarded by this
+	private boolean mReleased; // guarded by this
+	private int mPinCount; // guarded by this
+
+	/** the memory cache holding the drawable, set under the cache lock */
+	volatile BitmapMemoryCache mCache;
+	/** the key of the drawable in {@link #mCache}, guarded by the cache lock */
+	BitmapCacheKey mCacheKey;
+
+	RefCountedBitmapDrawable(Resources res, Bitmap bitmap, BitmapPool pool) {
+		super(res, bitmap);
+		this.mPool = pool;
+	}
+
+	/**
+	 * take a reference on the drawable if it's counted
+	 * @return the same drawable
+	 */
+	public static Drawable acquire(Drawable drawable) {
+		if (drawable instanceof RefCountedBitmapDrawable) {
+			RefCountedBitmapDrawable counted = (RefCountedBitmapDrawable) drawable;
+			synchronized (counted) {
+				++counted.mRefCount;
+			}
+		}
+		return drawable;
+	}
+
+	/**
+	 * release a reference taken on the drawable, the drawable must not be used anymore by the caller
+	 */
+	public static void release(Drawable drawable) {
+		if (drawable instanceof RefCountedBitmapDrawable)
+			((RefCountedBitmapDrawable) drawable).release();
+	}
+
+	/**
+	 * mark the drawable as displayed in a view, the memory cache keeps it until it's unpinned
+	 */
+	public static void pin(Drawable drawable) {
+		if (drawable instanceof RefCountedBitmapDrawable) {
+			RefCountedBitmapDrawable counted = (RefCountedBitmapDrawable) drawable;
+			final boolean pinned;
+			synchronized (counted) {
+				pinned = ++counted.mPinCount == 1;
+			}
+			if (pinned)
+				counted.onPinChanged();
+		}
+	}
+
+	/**
+	 * mark the drawable as not displayed anymore in a view where it was pinned
+	 */
+	public static void unpin(Drawable drawable) {
+		if (drawable instanceof RefCountedBitmapDrawable) {
+			RefCountedBitmapDrawable counted = (RefCountedBitmapDrawable) drawable;
+			final boolean unpinned;
+			synchronized (counted) {
+				unpinned = counted.mPinCount > 0 && --counted.mPinCount == 0;
+			}
+			if (unpinned)
+				counted.onPinChanged();
+		}
+	}
+
+	synchronized boolean isPinned() {
+		return mPinCount != 0;
+	}
+
+	private void onPinChanged() {
+		// called without holding the drawable lock, the cache takes it after its own
+		BitmapMemoryCache cache = mCache;
+		if (cache != null)
+			cache.onPinChanged(this);
+	}
+
+	private void release() {
+		synchronized (this) {
+			if (mRefCount <= 0 || --mRefCount != 0 || mReleased)
+				return;
+			mReleased = true;
+		}
+		if (mPool != null)
+			mPool.put(getBitmap());
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "RefCountedBitmapDrawable:"+getBitmap()+" refs:"+mRefCount+" pins:"+mPinCount;
+	}
+}
@@ -0,0 +1,150 @@
+package com.levelup.picturecache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * the UUID of the URL based {@link CacheKey}, a MurmurHash3 x64 128 bits of the URL characters in hexadecimal
+ * <p>
+ * the last URLs hashed are kept so binding the same URL again doesn't compute anything
+ */
+final class UrlHash {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private static final int MEMO_SIZE = 256; // must be a power of 2
+
+	private static class Memo {
+		final String url;
+		final String uuid;
+		String legacyUuid; // computed when first needed
+
+		Memo(String url, String uuid) {
+			this.url = url;
+			this.uuid = uuid;
+		}
+	}
+
+	/** racy but a Memo is immutable apart from legacyUuid that gives the same value for every thread */
+	private static final Memo[] sMemo = new Memo[MEMO_SIZE];
+
+	private UrlHash() {
+	}
+
+	/**
+	 * @param url
+	 * @return the UUID for the URL based keys of that URL
+	 */
+	static String getUuid(String url) {
+		return getMemo(url).uuid;
+	}
+
+	/**
+	 * @param url
+	 * @return the MD5 based UUID used for the URL based keys before {@link #getUuid(String)}
+	 * @throws NoSuchAlgorithmException
+	 */
+	static String getLegacyUuid(String url) throws NoSuchAlgorithmException {
+		Memo memo = getMemo(url);
+		if (memo.legacyUuid == null) {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			memo.legacyUuid = toHex(digest.digest(url.getBytes()));
+		}
+		return memo.legacyUuid;
+	}
+
+	private static Memo getMemo(String url) {
+		final int hashCode = url.hashCode();
+		final int slot = (hashCode ^ (hashCode >>> 16)) & (MEMO_SIZE - 1);
+		Memo memo = sMemo[slot];
+		if (memo == null || !url.equals(memo.url)) {
+			memo = new Memo(url, hash128(url));
+			sMemo[slot] = memo;
+		}
+		return memo;
+	}
+
+	/**
+	 * MurmurHash3 x64 128 bits of the characters in the string, each character is taken as 2 little endian bytes
+	 * @return the hash in hexadecimal
+	 */
+	static String hash128(String s) {
+		final int len = s.length();
+		long h1 = 0;
+		long h2 = 0;
+
+		int i = 0;
+		for (; i + 8 <= len; i += 8) {
+			long k1 = s.charAt(i) | ((long) s.charAt(i+1) << 16) | ((long) s.charAt(i+2) << 32) | ((long) s.charAt(i+3) << 48);
+			long k2 = s.charAt(i+4) | ((long) s.charAt(i+5) << 16) | ((long) s.charAt(i+6) << 32) | ((long) s.charAt(i+7) << 48);
+
+			k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+			k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		final int tail = len - i;
+		if (tail != 0) {
+			long k1 = 0;
+			long k2 = 0;
+			for (int j = 0; j < tail; ++j) {
+				if (j < 4)
+					k1 |= (long) s.charAt(i+j) << (16 * j);
+				else
+					k2 |= (long) s.charAt(i+j) << (16 * (j - 4));
+			}
+			if (tail > 4) {
+				k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+			}
+			k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+		}
+
+		final long byteLength = 2L * len;
+		h1 ^= byteLength;
+		h2 ^= byteLength;
+
+		h1 += h2;
+		h2 += h1;
+
+		h1 = fmix64(h1);
+		h2 = fmix64(h2);
+
+		h1 += h2;
+		h2 += h1;
+
+		final char[] hex = new char[32];
+		toHex(h1, hex, 0);
+		toHex(h2, hex, 16);
+		return new String(hex);
+	}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static void toHex(long value, char[] dst, int offset) {
+		for (int i = 15; i >= 0; --i) {
+			dst[offset + i] = HEX_DIGITS[(int) value & 0xF];
+			value >>>= 4;
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		final char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; ++i) {
+			hex[2*i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+			hex[2*i+1] = HEX_DIGITS[bytes[i] & 0xF];
+		}
+		return new String(hex);
+	}
+}
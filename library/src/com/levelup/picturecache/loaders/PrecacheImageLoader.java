@@ -7,6 +7,7 @@ import uk.co.senab.bitmapcache.BitmapLruCache;
 import android.graphics.drawable.Drawable;
 
 import com.levelup.picturecache.PictureLoaderHandler;
+import com.levelup.picturecache.RefCountedBitmapDrawable;
 import com.levelup.picturecache.UIHandler;
 import com.levelup.picturecache.transforms.bitmap.BitmapTransform;
 import com.levelup.picturecache.transforms.storage.StorageTransform;
@@ -27,7 +28,9 @@ public class PrecacheImageLoader extends PictureLoaderHandler {
 	public void drawDefaultPicture(String url, UIHandler postHandler, BitmapLruCache drawableCache) {}
 
 	@Override
-	public void drawBitmap(Drawable bmp, String url, Object cookie, UIHandler postHandler, BitmapLruCache drawableCache) {}
+	public void drawBitmap(Drawable bmp, String url, Object cookie, UIHandler postHandler, BitmapLruCache drawableCache) {
+		RefCountedBitmapDrawable.release(bmp); // nothing to display
+	}
 
 	@Override
 	public boolean equals(Object o) {
@@ -55,7 +58,7 @@ public class PrecacheImageLoader extends PictureLoaderHandler {
 	}
 
 	@Override
-	protected boolean canDirectLoad(File file, UIHandler uiHandler) {
+	protected boolean canDirectLoad(File file, long fileSize, UIHandler uiHandler) {
 		return true;
 	}
 }
@@ -66,7 +66,7 @@ public class RemoteViewLoader extends PictureLoaderHandler {
 	}
 
 	@Override
-	protected boolean canDirectLoad(File file, UIHandler uiHandler) {
+	protected boolean canDirectLoad(File file, long fileSize, UIHandler uiHandler) {
 		return true;
 	}
 }
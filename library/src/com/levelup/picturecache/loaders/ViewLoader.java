@@ -52,6 +52,10 @@ public abstract class ViewLoader<T extends View> extends PictureLoaderHandler {
 		return view.getImageView();
 	}
 
+	boolean isViewDisplayable() {
+		return view.canDisplay();
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (o==this) return true;
@@ -154,8 +158,8 @@ public abstract class ViewLoader<T extends View> extends PictureLoaderHandler {
 	}
 
 	@Override
-	protected boolean canDirectLoad(File file, UIHandler uiHandler) {
-		return !uiHandler.isUIThread() || file.length() < MAX_SIZE_IN_UI_THREAD;
+	protected boolean canDirectLoad(File file, long fileSize, UIHandler uiHandler) {
+		return !uiHandler.isUIThread() || fileSize < MAX_SIZE_IN_UI_THREAD;
 	}
 
 	public static Bitmap drawableToBitmap(Drawable drawable) {
@@ -6,6 +6,7 @@ import android.os.Handler;
 
 import com.levelup.picturecache.LogManager;
 import com.levelup.picturecache.PictureCache;
+import com.levelup.picturecache.RefCountedBitmapDrawable;
 import com.levelup.picturecache.UIHandler;
 import com.levelup.picturecache.transforms.bitmap.BitmapTransform;
 import com.levelup.picturecache.transforms.storage.StorageTransform;
@@ -36,6 +37,7 @@ class ViewLoadingTag {
 			mDrawInUI.setPendingDraw(pendingDraw, pendingUrl);
 		else {
 			if (ViewLoader.DEBUG_VIEW_LOADING) LogManager.getLogger().i(PictureCache.LOG_TAG, "temporary store pending draw:"+pendingDraw+" for "+pendingUrl);
+			RefCountedBitmapDrawable.release(this.mPendingDraw);
 			this.mPendingDraw = pendingDraw;
 			this.mPendingUrl = pendingUrl;
 		}
@@ -59,9 +61,30 @@ class ViewLoadingTag {
 		return old;
 	}
 
+	/**
+	 * called when the view is attached or detached from its window
+	 * called under a lock on the view
+	 */
+	void setViewAttached(boolean attached) {
+		if (mDrawInUI!=null)
+			mDrawInUI.setDisplayedPinned(attached);
+	}
+
+	/**
+	 * take over the state of the tag this one replaces in the view, called under a lock on the view
+	 * <p>the displayed drawable reference goes with the {@link DrawInUI} and is released when the next drawable is displayed,
+	 * it's unpinned right away as it's being replaced, even before API 12 where views don't tell when they are detached.
+	 * The pending drawable of the old URL will not be displayed and is released</p>
+	 */
 	void recoverStateFrom(ViewLoadingTag oldTag) {
 		setAndGetIsDefault(oldTag.isDefault());
 		mDrawInUI = oldTag.mDrawInUI;
+		oldTag.mDrawInUI = null;
+		if (mDrawInUI!=null)
+			mDrawInUI.setDisplayedPinned(false);
+		RefCountedBitmapDrawable.release(oldTag.mPendingDraw);
+		oldTag.mPendingDraw = null;
+		oldTag.mPendingUrl = null;
 	}
 
 	@Override
@@ -87,14 +110,32 @@ class ViewLoadingTag {
 		// pending draw data
 		private Drawable mPendingDrawable;
 		private String mPendingUrl;
+		/** the drawable displayed in the view, pinned in the memory cache, its reference is released when it's replaced */
+		private Drawable mDisplayedDrawable;
+		private boolean mDisplayedPinned;
 
 		DrawInUI(ViewLoader<?> view, BitmapLruCache cache) {
 			this.viewLoader = view;
 			this.cache = cache;
 		}
 
+		/**
+		 * pin the displayed drawable while the view is on screen
+		 * called under a lock on the view
+		 */
+		void setDisplayedPinned(boolean pinned) {
+			if (mDisplayedDrawable==null || mDisplayedPinned==pinned)
+				return;
+			mDisplayedPinned = pinned;
+			if (pinned)
+				RefCountedBitmapDrawable.pin(mDisplayedDrawable);
+			else
+				RefCountedBitmapDrawable.unpin(mDisplayedDrawable);
+		}
+
 		public void setPendingDraw(Drawable pendingDraw, String pendingUrl) {
 			synchronized (viewLoader.getImageView()) {
+				RefCountedBitmapDrawable.release(this.mPendingDrawable);
 				this.mPendingDrawable = pendingDraw;
 				this.mPendingUrl = pendingUrl;
 			}
@@ -110,6 +151,8 @@ class ViewLoadingTag {
 						skipDrawing = true;
 						if (ViewLoader.DEBUG_VIEW_LOADING) LogManager.getLogger().e(PictureCache.LOG_TAG, viewLoader+" skip drawing "+mPendingUrl+" instead of "+tag.url+" with "+mPendingDrawable);
 						//throw new IllegalStateException(ImageViewLoader.this+" try to draw "+mPendingUrl+" instead of "+tag.url+" with "+mPendingDraw);
+						RefCountedBitmapDrawable.release(mPendingDrawable);
+						mPendingDrawable = null;
 					}
 				}
 
@@ -128,8 +171,19 @@ class ViewLoadingTag {
 						else if (ViewLoader.DEBUG_VIEW_LOADING) LogManager.getLogger().e(PictureCache.LOG_TAG, viewLoader+" saved a default drawing");
 					} else {
 						viewLoader.displayCustomBitmap(mPendingDrawable);
-						mPendingDrawable = null;
 					}
+
+					// the view doesn't use the previous drawable anymore, the pending one keeps the reference it came with
+					final Drawable previous = mDisplayedDrawable;
+					final boolean previousPinned = mDisplayedPinned;
+					mDisplayedDrawable = mPendingDrawable;
+					mPendingDrawable = null;
+					mDisplayedPinned = mDisplayedDrawable!=null && viewLoader.isViewDisplayable();
+					if (mDisplayedPinned)
+						RefCountedBitmapDrawable.pin(mDisplayedDrawable);
+					if (previousPinned)
+						RefCountedBitmapDrawable.unpin(previous);
+					RefCountedBitmapDrawable.release(previous);
 				}
 			}
 		}
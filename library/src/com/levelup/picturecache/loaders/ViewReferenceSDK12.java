@@ -18,11 +18,24 @@ public abstract class ViewReferenceSDK12<V extends View> extends ViewReference<V
 	@Override
 	public void onViewAttachedToWindow(View v) {
 		mViewAttached = true;
+		setTagAttached(true);
 	}
 
 	@Override
 	public void onViewDetachedFromWindow(View v) {
 		mViewAttached = false;
+		setTagAttached(false);
+	}
+
+	/**
+	 * the picture displayed stays pinned in the memory cache only while the view is attached
+	 */
+	private void setTagAttached(boolean attached) {
+		synchronized (getImageView()) {
+			Object tag = getImageView().getTag();
+			if (tag instanceof ViewLoadingTag)
+				((ViewLoadingTag) tag).setViewAttached(attached);
+		}
 	}
 	
 	@Override
@@ -14,6 +14,7 @@ public interface BitmapTransform {
 	
 	/**
 	 * Get a fancy display name for the transformation (unique per transformation equals)
+	 * <p>It's used to find the transformed Bitmaps in memory, see {@link StableBitmapTransform}</p>
 	 * @return
 	 */
 	String getVariant();
@@ -0,0 +1,157 @@
+package com.levelup.picturecache.transforms.bitmap;
+
+import java.util.Arrays;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader.TileMode;
+
+/**
+ * apply several {@link BitmapTransform} in order
+ * <p>
+ * consecutive {@link FusableBitmapTransform} are folded in a single Matrix and drawn in one pass into one output Bitmap,
+ * with the rounded corners of the last one, rather than creating an intermediate Bitmap for each of them
+ */
+public class BitmapTransformChain implements StableBitmapTransform {
+
+	/**
+	 * where the output Bitmaps come from, like a pool of Bitmaps to reuse
+	 */
+	public interface BitmapProvider {
+		/**
+		 * @return a mutable ARGB_8888 Bitmap of that size, fully transparent
+		 */
+		Bitmap obtain(int width, int height);
+
+		/**
+		 * give back an intermediate Bitmap that is not used anymore
+		 */
+		void release(Bitmap bitmap);
+	}
+
+	private final BitmapTransform[] mSteps;
+	private final String mVariant;
+
+	/**
+	 * constructor of a {@link BitmapTransform} applying the steps in that order
+	 * @param steps the transforms to apply
+	 */
+	public BitmapTransformChain(BitmapTransform... steps) {
+		if (steps.length==0) throw new IllegalArgumentException("empty transform chain");
+		this.mSteps = steps.clone();
+		StringBuilder variant = new StringBuilder();
+		for (BitmapTransform step : mSteps) {
+			if (variant.length()!=0)
+				variant.append('_');
+			variant.append(step.getVariant());
+		}
+		this.mVariant = variant.toString();
+	}
+
+	@Override
+	public Bitmap transformBitmap(Bitmap bitmap) {
+		return transformBitmap(bitmap, null);
+	}
+
+	/**
+	 * Transform the source bitmap into the bitmap for display
+	 * @param bitmap the Bitmap to transformed
+	 * @param provider where to get the output Bitmaps from, may be null to allocate them
+	 * @return bitmap the transformed Bitmap, may be the same as the source if no transformation occured
+	 */
+	public Bitmap transformBitmap(Bitmap bitmap, BitmapProvider provider) {
+		if (bitmap==null)
+			return null;
+
+		final Bitmap source = bitmap;
+		int i = 0;
+		while (i < mSteps.length) {
+			final Bitmap previous = bitmap;
+			if (mSteps[i] instanceof FusableBitmapTransform) {
+				int end = i;
+				while (end < mSteps.length && mSteps[end] instanceof FusableBitmapTransform) {
+					++end;
+					if (((FusableBitmapTransform) mSteps[end-1]).getCornerRadius() > 0)
+						break; // the rounded corners are drawn last
+				}
+				bitmap = drawFused(bitmap, i, end, provider);
+				i = end;
+			} else {
+				bitmap = mSteps[i].transformBitmap(bitmap);
+				++i;
+			}
+
+			if (previous!=source && previous!=bitmap && provider!=null)
+				provider.release(previous);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * draw the source through the steps from start to end in a single pass
+	 */
+	private Bitmap drawFused(Bitmap bitmap, int start, int end, BitmapProvider provider) {
+		final Matrix matrix = new Matrix();
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		float radius = 0;
+		for (int i=start; i<end; ++i) {
+			final FusableBitmapTransform step = (FusableBitmapTransform) mSteps[i];
+			step.mapToOutput(matrix, width, height);
+			final int stepWidth = step.getOutputWidth(width, height);
+			height = step.getOutputHeight(width, height);
+			width = stepWidth;
+			radius = step.getCornerRadius();
+		}
+
+		if (radius <= 0 && matrix.isIdentity() && width==bitmap.getWidth() && height==bitmap.getHeight())
+			return bitmap; // nothing to draw
+
+		final Bitmap output = provider!=null ? provider.obtain(width, height) : Bitmap.createBitmap(width, height, Config.ARGB_8888);
+		final Canvas canvas = new Canvas(output);
+		final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+		if (radius > 0) {
+			final BitmapShader shader = new BitmapShader(bitmap, TileMode.CLAMP, TileMode.CLAMP);
+			shader.setLocalMatrix(matrix);
+			paint.setShader(shader);
+			canvas.drawRoundRect(new RectF(0.0f, 0.0f, width, height), radius, radius, paint);
+		} else
+			canvas.drawBitmap(bitmap, matrix, paint);
+		return output;
+	}
+
+	@Override
+	public int getCost() {
+		int cost = COST_NONE;
+		for (BitmapTransform step : mSteps) {
+			if (step instanceof StableBitmapTransform)
+				cost = Math.max(cost, ((StableBitmapTransform) step).getCost());
+			else
+				cost = COST_DRAW;
+		}
+		return cost;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this==o) return true;
+		if (!(o instanceof BitmapTransformChain)) return false;
+		BitmapTransformChain l = (BitmapTransformChain) o;
+		return Arrays.equals(mSteps, l.mSteps);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(mSteps);
+	}
+
+	@Override
+	public String getVariant() {
+		return mVariant;
+	}
+}
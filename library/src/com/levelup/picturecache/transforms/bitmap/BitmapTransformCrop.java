@@ -5,7 +5,7 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 
 /** crop the Bitmap to fit inside the width/height provided in the constructor */
-public class BitmapTransformCrop implements BitmapTransform {
+public class BitmapTransformCrop implements FusableBitmapTransform {
 
 	private final int width;
 	private final int height;
@@ -71,4 +71,31 @@ public class BitmapTransformCrop implements BitmapTransform {
 	public String getVariant() {
 		return "crop_"+width+"x"+height;
 	}
+
+	@Override
+	public int getCost() {
+		return COST_DRAW;
+	}
+
+	@Override
+	public int getOutputWidth(int srcWidth, int srcHeight) {
+		return width;
+	}
+
+	@Override
+	public int getOutputHeight(int srcWidth, int srcHeight) {
+		return height;
+	}
+
+	@Override
+	public void mapToOutput(Matrix matrix, int srcWidth, int srcHeight) {
+		final float scale = Math.max(((float) width) / srcWidth, ((float) height) / srcHeight); // fill the whole target
+		matrix.postScale(scale, scale);
+		matrix.postTranslate((width - srcWidth * scale) / 2, (height - srcHeight * scale) / 2);
+	}
+
+	@Override
+	public float getCornerRadius() {
+		return 0;
+	}
 }
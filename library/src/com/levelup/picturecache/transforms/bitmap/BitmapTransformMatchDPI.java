@@ -11,7 +11,7 @@ import android.widget.ImageView;
  * if the target of the download is an {@link ImageView} you may want to use
  * {@link ImageView#setImageMatrix(Matrix)} instead to avoid memory copies
  */
-public class BitmapTransformMatchDPI implements BitmapTransform {
+public class BitmapTransformMatchDPI implements FusableBitmapTransform {
 
 	private final int deviceDPI;
 
@@ -41,8 +41,47 @@ public class BitmapTransformMatchDPI implements BitmapTransform {
 		return bitmap;
 	}
 
+	@Override
+	public boolean equals(Object o) {
+		if (this==o) return true;
+		if (!(o instanceof BitmapTransformMatchDPI)) return false;
+		BitmapTransformMatchDPI l = (BitmapTransformMatchDPI) o;
+		return deviceDPI==l.deviceDPI;
+	}
+
+	@Override
+	public int hashCode() {
+		return deviceDPI;
+	}
+
 	@Override
 	public String getVariant() {
 		return "dpi_"+deviceDPI;
 	}
+
+	@Override
+	public int getCost() {
+		return deviceDPI!=160 ? COST_COPY : COST_NONE;
+	}
+
+	@Override
+	public int getOutputWidth(int width, int height) {
+		return Math.round(width * (float)deviceDPI / 160f);
+	}
+
+	@Override
+	public int getOutputHeight(int width, int height) {
+		return Math.round(height * (float)deviceDPI / 160f);
+	}
+
+	@Override
+	public void mapToOutput(Matrix matrix, int width, int height) {
+		if (deviceDPI!=160)
+			matrix.postScale((float)deviceDPI / 160f, (float)deviceDPI / 160f);
+	}
+
+	@Override
+	public float getCornerRadius() {
+		return 0;
+	}
 }
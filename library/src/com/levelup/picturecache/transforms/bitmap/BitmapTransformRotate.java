@@ -4,7 +4,7 @@ import android.graphics.Bitmap;
 import android.graphics.Matrix;
 
 /** rotate the Bitmap with the rotation provided in the constructor */
-public class BitmapTransformRotate implements BitmapTransform {
+public class BitmapTransformRotate implements FusableBitmapTransform {
 	private final float mRotation;
 
 	/**
@@ -42,4 +42,40 @@ public class BitmapTransformRotate implements BitmapTransform {
 	public String getVariant() {
 		return "rot_"+mRotation;
 	}
+
+	@Override
+	public int getCost() {
+		return mRotation!=0.0f ? COST_COPY : COST_NONE;
+	}
+
+	@Override
+	public int getOutputWidth(int width, int height) {
+		final double angle = Math.toRadians(mRotation);
+		return (int) Math.round(Math.abs(width * Math.cos(angle)) + Math.abs(height * Math.sin(angle)));
+	}
+
+	@Override
+	public int getOutputHeight(int width, int height) {
+		final double angle = Math.toRadians(mRotation);
+		return (int) Math.round(Math.abs(width * Math.sin(angle)) + Math.abs(height * Math.cos(angle)));
+	}
+
+	@Override
+	public void mapToOutput(Matrix matrix, int width, int height) {
+		if (mRotation==0.0f)
+			return;
+		final double angle = Math.toRadians(mRotation);
+		final float cos = (float) Math.cos(angle);
+		final float sin = (float) Math.sin(angle);
+		// move the rotated corners back in the output
+		final float left = Math.min(Math.min(0, width * cos), Math.min(-height * sin, width * cos - height * sin));
+		final float top = Math.min(Math.min(0, width * sin), Math.min(height * cos, width * sin + height * cos));
+		matrix.postRotate(mRotation);
+		matrix.postTranslate(-left, -top);
+	}
+
+	@Override
+	public float getCornerRadius() {
+		return 0;
+	}
 }
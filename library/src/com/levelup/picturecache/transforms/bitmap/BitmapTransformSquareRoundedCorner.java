@@ -4,6 +4,7 @@ import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapShader;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.RectF;
 import android.graphics.Shader.TileMode;
@@ -16,7 +17,7 @@ import com.levelup.picturecache.PictureCache;
  * <p>
  * the Bitmap is cropped of its bigger dimension to create the square
  */
-public class BitmapTransformSquareRoundedCorner implements BitmapTransform {
+public class BitmapTransformSquareRoundedCorner implements FusableBitmapTransform {
 
 	private final int roundRadius;
 	
@@ -87,11 +88,45 @@ public class BitmapTransformSquareRoundedCorner implements BitmapTransform {
 	@Override
 	public boolean equals(Object o) {
 		if (this==o) return true;
-		return false;
+		if (!(o instanceof BitmapTransformSquareRoundedCorner)) return false;
+		BitmapTransformSquareRoundedCorner l = (BitmapTransformSquareRoundedCorner) o;
+		return roundRadius==l.roundRadius;
+	}
+
+	@Override
+	public int hashCode() {
+		return roundRadius;
 	}
 	
 	@Override
 	public String getVariant() {
 		return "_r"+roundRadius;
 	}
+
+	@Override
+	public int getCost() {
+		return COST_DRAW;
+	}
+
+	@Override
+	public int getOutputWidth(int width, int height) {
+		return Math.min(width, height);
+	}
+
+	@Override
+	public int getOutputHeight(int width, int height) {
+		return Math.min(width, height);
+	}
+
+	@Override
+	public void mapToOutput(Matrix matrix, int width, int height) {
+		// keep the center square, like transformBitmap() does
+		final int size = Math.min(width, height);
+		matrix.postTranslate(-((width/2) - (size/2)), -((height/2) - (size/2)));
+	}
+
+	@Override
+	public float getCornerRadius() {
+		return roundRadius;
+	}
 }
@@ -0,0 +1,37 @@
+package com.levelup.picturecache.transforms.bitmap;
+
+import android.graphics.Matrix;
+
+/**
+ * a {@link BitmapTransform} that only maps the source geometrically, possibly with rounded corners,
+ * so it can be folded with the others in a {@link BitmapTransformChain}
+ */
+public interface FusableBitmapTransform extends StableBitmapTransform {
+
+	/**
+	 * @param width width of the source
+	 * @param height height of the source
+	 * @return width of the output
+	 */
+	int getOutputWidth(int width, int height);
+
+	/**
+	 * @param width width of the source
+	 * @param height height of the source
+	 * @return height of the output
+	 */
+	int getOutputHeight(int width, int height);
+
+	/**
+	 * post concatenate the mapping of a source of that size in the output
+	 * @param matrix the mapping done so far
+	 * @param width width of the source
+	 * @param height height of the source
+	 */
+	void mapToOutput(Matrix matrix, int width, int height);
+
+	/**
+	 * @return the radius of the rounded corners of the output, 0 for square corners
+	 */
+	float getCornerRadius();
+}
@@ -0,0 +1,22 @@
+package com.levelup.picturecache.transforms.bitmap;
+
+/**
+ * a {@link BitmapTransform} with a stable identity and a hint of its cost, so its results can be kept and reused
+ * <p>
+ * {@link #getVariant()} identifies the transformation: two transforms with the same variant give the same result for the same source,
+ * and {@link #equals(Object)}/{@link #hashCode()} are consistent with it
+ */
+public interface StableBitmapTransform extends BitmapTransform {
+
+	/** the source Bitmap is returned as is */
+	int COST_NONE = 0;
+	/** the source Bitmap is copied once, through a Matrix for example */
+	int COST_COPY = 1;
+	/** the source Bitmap is drawn with a shader or copied several times */
+	int COST_DRAW = 2;
+
+	/**
+	 * @return {@link #COST_NONE}, {@link #COST_COPY} or {@link #COST_DRAW}
+	 */
+	int getCost();
+}
@@ -0,0 +1,118 @@
+package com.levelup.picturecache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheKeyTest {
+
+	/** keys as stored in the SQLite index by every version */
+	private static final String[] STORED_KEYS = {
+		"5f2b8d0e8c0a4f1b9a3e1d2c3b4a5f6e:48:h:0:",
+		"5f2b8d0e8c0a4f1b9a3e1d2c3b4a5f6e:320:w:1:",
+		"user_12345:96:h:2:_round",
+		"user_12345:-1:w:0:",
+		"a:0:h:1:variant with spaces",
+	};
+
+	@Before
+	public void setUp() {
+		LogManager.setLogger(new SystemLogger());
+	}
+
+	private static CacheKey writeAndRead(CacheKey key) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		key.writeTo(out);
+		out.close();
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		CacheKey read = CacheKey.readFrom(in);
+		assertEquals("the whole key is read", -1, in.read());
+		return read;
+	}
+
+	private static void assertSameKey(CacheKey expected, CacheKey actual) {
+		assertEquals(expected, actual);
+		assertEquals(expected.hashCode(), actual.hashCode());
+		assertEquals(expected.serialize(), actual.serialize()); // the StorageType is not part of equals()
+		assertEquals(expected.getFilename(), actual.getFilename());
+	}
+
+	@Test
+	public void binaryRoundTrip() throws IOException {
+		for (String stored : STORED_KEYS) {
+			CacheKey key = CacheKey.unserialize(stored);
+			assertSameKey(key, writeAndRead(key));
+		}
+	}
+
+	@Test
+	public void stringRoundTrip() {
+		for (String stored : STORED_KEYS) {
+			CacheKey key = CacheKey.unserialize(stored);
+			assertEquals(stored, key.serialize());
+			assertSameKey(key, CacheKey.unserialize(key.serialize()));
+		}
+	}
+
+	@Test
+	public void readsTheFieldsOfTheOldStrings() {
+		// what the String.split() parser used to read
+		for (String stored : STORED_KEYS) {
+			String[] parts = stored.split(":");
+			CacheKey key = CacheKey.unserialize(stored);
+			assertEquals(parts[0], key.getUUID());
+			assertEquals(parts[2].equals("w"), key.isWidthBased());
+			assertEquals(parts[0]+(key.isWidthBased() ? "w" : "")+"_"+Integer.valueOf(parts[1])+(parts.length > 4 ? parts[4] : ""), key.toString());
+		}
+	}
+
+	@Test
+	public void urlBasedKeyRoundTrip() throws IOException {
+		CacheKey key = CacheKey.newUrlBasedKey("http://example.com/a.jpg?size=large", 150, true, StorageType.PNG, "_blur");
+		assertSameKey(key, writeAndRead(key));
+		assertSameKey(key, CacheKey.unserialize(key.serialize()));
+		assertTrue(CacheKey.unserialize(key.serialize()).isUrlBasedKey("http://example.com/a.jpg?size=large"));
+	}
+
+	@Test
+	public void invalidStrings() {
+		final String[] invalid = { "", "uuid", ":48:h:0:", "uuid:48", "uuid:48:h", "uuid:x:h:0:", "uuid::h:0:", "uuid:48:h::" };
+		for (String string : invalid) {
+			try {
+				CacheKey.unserialize(string);
+				fail("read an invalid key "+string);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void fileNameCharactersAreReplaced() {
+		CacheKey key = CacheKey.unserialize("a/b'c:48:h:0:");
+		assertFalse(key.getFilename().contains("/"));
+		assertFalse(key.getFilename().contains("'"));
+	}
+
+	@Test
+	public void keysAreInterned() {
+		CacheKey key = CacheKey.newUrlBasedKey("http://example.com/interned.jpg", 48, false, StorageType.AUTO, null);
+		assertSame(key, CacheKey.newUrlBasedKey("http://example.com/interned.jpg", 48, false, StorageType.AUTO, null));
+		assertSame(key, key.copyWithNewUuid(key.getUUID()));
+		assertNotSame(key, CacheKey.newUrlBasedKey("http://example.com/interned.jpg", 96, false, StorageType.AUTO, null));
+	}
+}
@@ -0,0 +1,78 @@
+package com.levelup.picturecache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CacheShardsTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private CacheShards mShards;
+
+	@Before
+	public void setUp() {
+		mShards = new CacheShards(mFolder.getRoot());
+	}
+
+	private static CacheKey newKey(int i, String variant) {
+		return CacheKey.newUrlBasedKey("http://example.com/"+i+".jpg", 48, false, StorageType.AUTO, variant);
+	}
+
+	@Test
+	public void twoLevelsInTheRoot() {
+		File folder = mShards.getFolder(newKey(1, null));
+		assertEquals(mFolder.getRoot(), folder.getParentFile().getParentFile());
+		assertEquals(1, folder.getName().length());
+		assertEquals(1, folder.getParentFile().getName().length());
+	}
+
+	@Test
+	public void variantsShareTheirFolder() {
+		for (int i=0; i<100; ++i)
+			assertEquals(mShards.getFolder(newKey(i, null)), mShards.getFolder(newKey(i, "_round")));
+	}
+
+	@Test
+	public void keysAreSpread() {
+		HashSet<File> folders = new HashSet<File>();
+		for (int i=0; i<10000; ++i)
+			folders.add(mShards.getFolder(newKey(i, null)));
+		assertEquals(256, folders.size());
+	}
+
+	@Test
+	public void prepareCreatesTheFolder() {
+		CacheKey key = newKey(1, null);
+		assertFalse(mShards.getFolder(key).exists());
+		assertTrue(mShards.prepareFolder(key).isDirectory());
+	}
+
+	@Test
+	public void resetCreatesTheFolderAgain() {
+		CacheKey key = newKey(1, null);
+		File folder = mShards.prepareFolder(key);
+		assertTrue(folder.delete());
+
+		mShards.prepareFolder(key);
+		assertFalse("the folder is known to exist", folder.exists());
+		mShards.reset();
+		assertTrue(mShards.prepareFolder(key).isDirectory());
+	}
+
+	@Test
+	public void legacyFiles() {
+		CacheKey key = newKey(1, null);
+		assertTrue(mShards.isLegacyFile(new File(mFolder.getRoot(), key.getFilename())));
+		assertFalse(mShards.isLegacyFile(new File(mShards.getFolder(key), key.getFilename())));
+	}
+}
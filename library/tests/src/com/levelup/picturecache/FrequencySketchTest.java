@@ -0,0 +1,51 @@
+package com.levelup.picturecache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+	@Test
+	public void countsTheIncrements() {
+		FrequencySketch sketch = new FrequencySketch(1000);
+		assertEquals(0, sketch.frequency(42));
+		for (int i=1; i<=5; ++i) {
+			sketch.increment(42);
+			assertEquals(i, sketch.frequency(42));
+		}
+	}
+
+	@Test
+	public void countsUpTo15() {
+		FrequencySketch sketch = new FrequencySketch(1000);
+		for (int i=0; i<100; ++i)
+			sketch.increment(42);
+		assertEquals(15, sketch.frequency(42));
+	}
+
+	@Test
+	public void otherKeysAreMostlyNotCounted() {
+		FrequencySketch sketch = new FrequencySketch(1000);
+		for (int hash=0; hash<1000; ++hash)
+			sketch.increment(hash * 0x9E3779B9);
+
+		int total = 0;
+		for (int hash=1000; hash<2000; ++hash)
+			total += sketch.frequency(hash * 0x9E3779B9);
+		assertTrue("too many collisions "+total, total < 50);
+	}
+
+	@Test
+	public void oldIncrementsFade() {
+		FrequencySketch sketch = new FrequencySketch(64);
+		for (int i=0; i<8; ++i)
+			sketch.increment(42);
+
+		// the counters are halved after 10 times the expected entries
+		for (int i=0; sketch.frequency(42) >= 8 && i<10000; ++i)
+			sketch.increment((1 + i % 100) * 0x9E3779B9);
+		assertEquals(4, sketch.frequency(42));
+	}
+}
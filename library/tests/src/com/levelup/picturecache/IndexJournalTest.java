@@ -0,0 +1,217 @@
+package com.levelup.picturecache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexJournalTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mFile;
+	private IndexJournal mJournal;
+
+	@Before
+	public void setUp() {
+		LogManager.setLogger(new SystemLogger());
+		mFile = new File(mFolder.getRoot(), "PictureCache.journal");
+		mJournal = new IndexJournal(mFile);
+	}
+
+	@After
+	public void tearDown() {
+		mJournal.close();
+	}
+
+	private CacheItem newItem(String name, LifeSpan lifeSpan) {
+		CacheItem item = new CacheItem(new File(mFolder.getRoot(), name+".jpg"), "http://example.com/"+name);
+		item.lifeSpan = lifeSpan;
+		item.remoteDate = 1000;
+		item.lastAccessDate = 2000;
+		item.fileSize = 3000;
+		return item;
+	}
+
+	private HashMap<CacheKey, CacheItem> replay() throws IOException {
+		mJournal.close();
+		mJournal = new IndexJournal(mFile);
+		HashMap<CacheKey, CacheItem> items = new HashMap<CacheKey, CacheItem>();
+		assertTrue(mJournal.read(items));
+		return items;
+	}
+
+	private static void assertSameItem(CacheItem expected, CacheItem actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getStoredPath(), actual.getStoredPath());
+		assertEquals(expected.URL, actual.URL);
+		assertEquals(expected.lifeSpan, actual.lifeSpan);
+		assertEquals(expected.remoteDate, actual.remoteDate);
+		assertEquals(expected.lastAccessDate, actual.lastAccessDate);
+		assertEquals(expected.fileSize, actual.fileSize);
+		assertEquals(expected.packedOffset, actual.packedOffset);
+	}
+
+	@Test
+	public void noJournal() throws IOException {
+		assertFalse(mJournal.read(new HashMap<CacheKey, CacheItem>()));
+	}
+
+	@Test
+	public void replayKeepsTheLastRecordOfEachKey() throws IOException {
+		CacheKey keyA = CacheKey.unserialize("uuidA:100:w:0:");
+		CacheKey keyB = CacheKey.unserialize("uuidB:48:h:2:_round");
+		CacheItem itemA = newItem("a", LifeSpan.SHORTTERM);
+		CacheItem itemB = newItem("b", LifeSpan.ETERNAL);
+		CacheItem newItemA = newItem("a2", LifeSpan.LONGTERM);
+		newItemA.fileSize = -1;
+
+		mJournal.writeItem(keyA, itemA);
+		mJournal.writeItem(keyB, itemB);
+		mJournal.writeItem(keyA, newItemA);
+		mJournal.writeRemoval(keyB);
+		mJournal.flush();
+
+		HashMap<CacheKey, CacheItem> items = replay();
+		assertEquals(1, items.size());
+		assertSameItem(newItemA, items.get(keyA));
+	}
+
+	@Test
+	public void replayKeepsTheKeys() throws IOException {
+		CacheKey key = CacheKey.unserialize("uuid-with_chars:320:w:1:_blur");
+		mJournal.writeItem(key, newItem("k", LifeSpan.SHORTTERM));
+		mJournal.flush();
+
+		CacheKey read = replay().keySet().iterator().next();
+		assertEquals(key, read);
+		assertEquals(key.serialize(), read.serialize()); // the StorageType is not part of equals()
+		assertEquals(key.getFilename(), read.getFilename());
+	}
+
+	@Test
+	public void replayPackedItems() throws IOException {
+		CacheKey key = CacheKey.unserialize("packed:40:h:2:");
+		CacheItem item = newItem("segment", LifeSpan.LONGTERM);
+		item.packedOffset = 123456;
+		mJournal.writeItem(key, item);
+		mJournal.flush();
+
+		CacheItem read = replay().get(key);
+		assertSameItem(item, read);
+		assertTrue(read.isPacked());
+	}
+
+	@Test
+	public void appendAfterReplay() throws IOException {
+		CacheKey keyA = CacheKey.unserialize("uuidA:100:w:0:");
+		CacheKey keyB = CacheKey.unserialize("uuidB:100:w:0:");
+		mJournal.writeItem(keyA, newItem("a", LifeSpan.SHORTTERM));
+		mJournal.flush();
+		replay();
+
+		mJournal.writeItem(keyB, newItem("b", LifeSpan.SHORTTERM));
+		mJournal.flush();
+		HashMap<CacheKey, CacheItem> items = replay();
+		assertEquals(2, items.size());
+		assertFalse(mJournal.needsRebuild(items.size()));
+	}
+
+	@Test
+	public void rebuildKeepsOnlyTheLiveItems() throws IOException {
+		CacheKey keyA = CacheKey.unserialize("uuidA:100:w:0:");
+		CacheKey keyB = CacheKey.unserialize("uuidB:100:w:0:");
+		CacheKey keyNoPath = CacheKey.unserialize("uuidC:100:w:0:");
+		for (int i=0; i<10; ++i)
+			mJournal.writeItem(keyA, newItem("a"+i, LifeSpan.SHORTTERM));
+		mJournal.writeItem(keyB, newItem("b", LifeSpan.SHORTTERM));
+		mJournal.flush();
+		final long journalSize = mFile.length();
+
+		LinkedHashMap<CacheKey, CacheItem> live = new LinkedHashMap<CacheKey, CacheItem>();
+		live.put(keyA, newItem("a9", LifeSpan.ETERNAL));
+		live.put(keyNoPath, new CacheItem(null, "http://example.com/nopath"));
+		mJournal.rebuild(live.entrySet());
+		assertTrue(mFile.length() < journalSize);
+		assertFalse(new File(mFile.getPath()+".tmp").exists());
+		assertFalse(new File(mFile.getPath()+".bkp").exists());
+
+		HashMap<CacheKey, CacheItem> items = replay();
+		assertEquals(1, items.size());
+		assertSameItem(live.get(keyA), items.get(keyA));
+	}
+
+	@Test
+	public void interruptedRebuildUsesTheBackup() throws IOException {
+		CacheKey key = CacheKey.unserialize("uuidA:100:w:0:");
+		CacheItem item = newItem("a", LifeSpan.SHORTTERM);
+		mJournal.writeItem(key, item);
+		mJournal.close();
+		assertTrue(mFile.renameTo(new File(mFile.getPath()+".bkp")));
+
+		assertSameItem(item, replay().get(key));
+		assertTrue(mFile.exists());
+	}
+
+	@Test
+	public void truncatedJournalKeepsTheCompleteRecords() throws IOException {
+		CacheKey keyA = CacheKey.unserialize("uuidA:100:w:0:");
+		CacheKey keyB = CacheKey.unserialize("uuidB:100:w:0:");
+		CacheItem itemA = newItem("a", LifeSpan.SHORTTERM);
+		mJournal.writeItem(keyA, itemA);
+		mJournal.writeItem(keyB, newItem("b", LifeSpan.SHORTTERM));
+		mJournal.close();
+
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			file.setLength(file.length() - 3);
+		} finally {
+			file.close();
+		}
+
+		HashMap<CacheKey, CacheItem> items = replay();
+		assertEquals(1, items.size());
+		assertSameItem(itemA, items.get(keyA));
+		assertTrue(mJournal.needsRebuild(items.size()));
+	}
+
+	@Test
+	public void unknownFormatIsDeleted() throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile));
+		try {
+			out.writeInt(0x50434a4c);
+			out.writeInt(1); // the journal with string keys
+			out.writeUTF("uuidA:100:w:0:");
+		} finally {
+			out.close();
+		}
+
+		assertFalse(mJournal.read(new HashMap<CacheKey, CacheItem>()));
+		assertFalse(mFile.exists());
+	}
+
+	@Test
+	public void tooManyObsoleteRecordsNeedARebuild() throws IOException {
+		CacheKey key = CacheKey.unserialize("uuidA:100:w:0:");
+		for (int i=0; i<2000; ++i)
+			mJournal.writeItem(key, newItem("a", LifeSpan.SHORTTERM));
+		assertFalse(mJournal.needsRebuild(1));
+		mJournal.writeItem(key, newItem("a", LifeSpan.SHORTTERM));
+		assertTrue(mJournal.needsRebuild(1));
+	}
+}
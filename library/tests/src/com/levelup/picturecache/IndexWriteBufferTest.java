@@ -0,0 +1,58 @@
+package com.levelup.picturecache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+public class IndexWriteBufferTest {
+
+	private final IndexWriteBuffer mBuffer = new IndexWriteBuffer();
+	private final CacheKey mKeyA = CacheKey.unserialize("uuidA:100:w:0:");
+	private final CacheKey mKeyB = CacheKey.unserialize("uuidB:100:w:0:");
+
+	private static CacheItem newItem(String name) {
+		return new CacheItem(new File("/cache/"+name), "http://example.com/"+name);
+	}
+
+	@Test
+	public void lastChangeWins() {
+		CacheItem item = newItem("a2");
+		assertEquals(1, mBuffer.put(mKeyA, newItem("a1")));
+		assertEquals(1, mBuffer.put(mKeyA, item));
+		assertEquals(2, mBuffer.remove(mKeyB));
+
+		HashMap<CacheKey, CacheItem> changes = mBuffer.takeAll();
+		assertEquals(2, changes.size());
+		assertSame(item, changes.get(mKeyA));
+		assertSame(IndexWriteBuffer.REMOVED, changes.get(mKeyB));
+	}
+
+	@Test
+	public void removeReplacesAPut() {
+		mBuffer.put(mKeyA, newItem("a"));
+		mBuffer.remove(mKeyA);
+		assertSame(IndexWriteBuffer.REMOVED, mBuffer.takeAll().get(mKeyA));
+	}
+
+	@Test
+	public void takeAllEmpties() {
+		mBuffer.put(mKeyA, newItem("a"));
+		HashMap<CacheKey, CacheItem> changes = mBuffer.takeAll();
+		assertTrue(mBuffer.takeAll().isEmpty());
+
+		assertEquals(1, mBuffer.put(mKeyB, newItem("b")));
+		assertEquals(1, changes.size()); // not changed by the later changes
+	}
+
+	@Test
+	public void clear() {
+		mBuffer.put(mKeyA, newItem("a"));
+		mBuffer.clear();
+		assertTrue(mBuffer.takeAll().isEmpty());
+	}
+}
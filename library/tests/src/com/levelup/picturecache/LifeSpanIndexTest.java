@@ -0,0 +1,163 @@
+package com.levelup.picturecache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LifeSpanIndexTest {
+
+	private LifeSpanIndex mIndex;
+
+	@Before
+	public void setUp() {
+		mIndex = new LifeSpanIndex();
+	}
+
+	private static CacheItem newItem(LifeSpan lifeSpan, long accessDate, long fileSize) {
+		CacheItem item = new CacheItem(new File("/cache/"+accessDate), "http://example.com/"+accessDate);
+		item.lifeSpan = lifeSpan;
+		item.lastAccessDate = accessDate;
+		item.fileSize = fileSize;
+		return item;
+	}
+
+	private static CacheKey newKey(CacheItem item) {
+		return CacheKey.newUrlBasedKey(item.URL, 100, true, StorageType.AUTO, null);
+	}
+
+	private void add(CacheItem item) {
+		mIndex.add(newKey(item), item);
+	}
+
+	@Test
+	public void oldestIsTheFirstAdded() {
+		CacheItem first = newItem(LifeSpan.SHORTTERM, 1, 10);
+		CacheItem second = newItem(LifeSpan.SHORTTERM, 2, 10);
+		add(first);
+		add(second);
+
+		assertSame(first, mIndex.getOldest(LifeSpan.SHORTTERM));
+		assertNull(mIndex.getOldest(LifeSpan.LONGTERM));
+		assertEquals(2, mIndex.getCount(LifeSpan.SHORTTERM));
+	}
+
+	@Test
+	public void touchMovesToTheEnd() {
+		CacheItem first = newItem(LifeSpan.SHORTTERM, 1, 10);
+		CacheItem second = newItem(LifeSpan.SHORTTERM, 2, 10);
+		add(first);
+		add(second);
+
+		first.lastAccessDate = 3;
+		mIndex.touch(first);
+		assertSame(second, mIndex.getOldest(LifeSpan.SHORTTERM));
+		assertEquals(2, mIndex.getCount(LifeSpan.SHORTTERM));
+	}
+
+	@Test
+	public void accessedItemsGetASecondChance() {
+		CacheItem first = newItem(LifeSpan.SHORTTERM, 1, 10);
+		CacheItem second = newItem(LifeSpan.SHORTTERM, 2, 10);
+		add(first);
+		add(second);
+
+		first.lastAccessDate = 3; // hit without touching the list
+		assertSame(second, mIndex.getOldest(LifeSpan.SHORTTERM));
+
+		second.lastAccessDate = 4;
+		assertSame(first, mIndex.getOldest(LifeSpan.SHORTTERM));
+	}
+
+	@Test
+	public void allAccessedItemsDontLoop() {
+		CacheItem first = newItem(LifeSpan.SHORTTERM, 1, 10);
+		CacheItem second = newItem(LifeSpan.SHORTTERM, 2, 10);
+		add(first);
+		add(second);
+
+		first.lastAccessDate = 3;
+		second.lastAccessDate = 4;
+		assertSame(first, mIndex.getOldest(LifeSpan.SHORTTERM));
+	}
+
+	@Test
+	public void removeUnlinks() {
+		CacheItem first = newItem(LifeSpan.SHORTTERM, 1, 10);
+		CacheItem second = newItem(LifeSpan.SHORTTERM, 2, 20);
+		add(first);
+		add(second);
+
+		mIndex.remove(first);
+		assertSame(second, mIndex.getOldest(LifeSpan.SHORTTERM));
+		assertEquals(1, mIndex.getCount(LifeSpan.SHORTTERM));
+		assertEquals(20, mIndex.getTotalSize(LifeSpan.SHORTTERM));
+
+		mIndex.remove(first); // not in the index anymore
+		assertEquals(1, mIndex.getCount(LifeSpan.SHORTTERM));
+	}
+
+	@Test
+	public void lifeSpanChangeMovesToTheOtherList() {
+		CacheItem item = newItem(LifeSpan.SHORTTERM, 1, 10);
+		add(item);
+
+		item.lifeSpan = LifeSpan.LONGTERM;
+		mIndex.touch(item);
+		assertNull(mIndex.getOldest(LifeSpan.SHORTTERM));
+		assertSame(item, mIndex.getOldest(LifeSpan.LONGTERM));
+		assertEquals(0, mIndex.getTotalSize(LifeSpan.SHORTTERM));
+		assertEquals(10, mIndex.getTotalSize(LifeSpan.LONGTERM));
+	}
+
+	@Test
+	public void unknownFileSizesAreNotCounted() {
+		CacheItem known = newItem(LifeSpan.ETERNAL, 1, 10);
+		CacheItem unknown = newItem(LifeSpan.ETERNAL, 2, -1);
+		add(known);
+		add(unknown);
+		assertEquals(10, mIndex.getTotalSize(LifeSpan.ETERNAL));
+
+		mIndex.setFileSize(unknown, 30);
+		assertEquals(40, mIndex.getTotalSize(LifeSpan.ETERNAL));
+
+		mIndex.remove(unknown);
+		mIndex.remove(known);
+		assertEquals(0, mIndex.getTotalSize(LifeSpan.ETERNAL));
+	}
+
+	@Test
+	public void sortByAccessDate() {
+		CacheItem newest = newItem(LifeSpan.SHORTTERM, 3, 10);
+		CacheItem oldest = newItem(LifeSpan.SHORTTERM, 1, 10);
+		CacheItem middle = newItem(LifeSpan.SHORTTERM, 2, 10);
+		add(newest);
+		add(oldest);
+		add(middle);
+
+		mIndex.sortByAccessDate();
+		assertSame(oldest, mIndex.getOldest(LifeSpan.SHORTTERM));
+		mIndex.remove(oldest);
+		assertSame(middle, mIndex.getOldest(LifeSpan.SHORTTERM));
+		mIndex.remove(middle);
+		assertSame(newest, mIndex.getOldest(LifeSpan.SHORTTERM));
+	}
+
+	@Test
+	public void clear() {
+		CacheItem item = newItem(LifeSpan.SHORTTERM, 1, 10);
+		add(item);
+
+		mIndex.clear();
+		assertNull(mIndex.getOldest(LifeSpan.SHORTTERM));
+		assertEquals(0, mIndex.getCount(LifeSpan.SHORTTERM));
+		assertEquals(0, mIndex.getTotalSize(LifeSpan.SHORTTERM));
+
+		add(item); // not linked anymore
+		assertEquals(1, mIndex.getCount(LifeSpan.SHORTTERM));
+	}
+}
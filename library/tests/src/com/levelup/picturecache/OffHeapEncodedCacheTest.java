@@ -0,0 +1,138 @@
+package com.levelup.picturecache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OffHeapEncodedCacheTest {
+
+	private static final int PAGE_SIZE = 256 * 1024;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mFile;
+
+	@Before
+	public void setUp() {
+		mFile = new File(mFolder.getRoot(), "PictureCache.encoded");
+	}
+
+	private static CacheKey newKey(int i) {
+		return CacheKey.newUrlBasedKey("http://example.com/"+i+".jpg", 48, false, StorageType.AUTO, null);
+	}
+
+	private static ByteBuffer newPicture(int size, int value) {
+		byte[] data = new byte[size];
+		for (int i=0; i<size; ++i)
+			data[i] = (byte) (value + i);
+		return ByteBuffer.wrap(data);
+	}
+
+	private static void assertPicture(int size, int value, ByteBuffer data) {
+		assertNotNull(data);
+		assertEquals(size, data.remaining());
+		for (int i=0; i<size; ++i)
+			assertEquals((byte) (value + i), data.get(data.position() + i));
+	}
+
+	@Test
+	public void putAndGet() throws IOException {
+		OffHeapEncodedCache cache = new OffHeapEncodedCache(mFile, 4 * PAGE_SIZE, null);
+		assertFalse("the mapped file is deleted", mFile.exists());
+
+		cache.put(newKey(1), LifeSpan.SHORTTERM, newPicture(3000, 1));
+		cache.put(newKey(2), LifeSpan.SHORTTERM, newPicture(100, 2));
+		assertEquals(4096 + 1024, cache.getSize());
+
+		ByteBuffer data = cache.get(newKey(1));
+		assertPicture(3000, 1, data);
+		assertTrue(data.isReadOnly());
+		assertFalse("read in place", data.hasArray());
+		cache.release(data);
+		assertNull(cache.get(newKey(3)));
+	}
+
+	@Test
+	public void tooBigPictures() throws IOException {
+		OffHeapEncodedCache cache = new OffHeapEncodedCache(mFile, 4 * PAGE_SIZE, null);
+		assertTrue(cache.accepts(PAGE_SIZE));
+		assertFalse(cache.accepts(PAGE_SIZE + 1));
+
+		cache = new OffHeapEncodedCache(mFile, PAGE_SIZE, null);
+		assertFalse("a quarter of the cache at most", cache.accepts(PAGE_SIZE / 4 + 1));
+	}
+
+	@Test
+	public void readChunksAreNotReused() throws IOException {
+		OffHeapEncodedCache cache = new OffHeapEncodedCache(mFile, PAGE_SIZE, null);
+		cache.put(newKey(0), LifeSpan.SHORTTERM, newPicture(1000, 0));
+		ByteBuffer data = cache.get(newKey(0));
+
+		// more pictures than the 256 chunks of 1KB, the first one is pushed out while it's read
+		for (int i=1; i<=300; ++i)
+			cache.put(newKey(i), LifeSpan.SHORTTERM, newPicture(1000, i));
+		assertFalse(cache.contains(newKey(0)));
+		assertPicture(1000, 0, data);
+
+		cache.release(data);
+		for (int i=301; i<=600; ++i)
+			cache.put(newKey(i), LifeSpan.SHORTTERM, newPicture(1000, i));
+		assertPicture(1000, 600, cache.get(newKey(600)));
+	}
+
+	@Test
+	public void removedWhileRead() throws IOException {
+		OffHeapEncodedCache cache = new OffHeapEncodedCache(mFile, PAGE_SIZE, null);
+		cache.put(newKey(0), LifeSpan.SHORTTERM, newPicture(1000, 0));
+		ByteBuffer data = cache.get(newKey(0));
+		cache.remove(newKey(0));
+		assertEquals(0, cache.getSize());
+
+		cache.put(newKey(0), LifeSpan.SHORTTERM, newPicture(1000, 1));
+		assertPicture(1000, 0, data);
+		cache.release(data);
+		assertPicture(1000, 1, cache.get(newKey(0)));
+	}
+
+	@Test
+	public void overQuotaLifeSpansAreEvictedFirst() throws IOException {
+		// half the cache reserved to the long term pictures
+		OffHeapEncodedCache cache = new OffHeapEncodedCache(mFile, PAGE_SIZE, new float[] { 0, 0.5f, 0 });
+		for (int i=0; i<100; ++i)
+			cache.put(newKey(i), LifeSpan.LONGTERM, newPicture(1000, i));
+		for (int i=100; i<500; ++i)
+			cache.put(newKey(i), LifeSpan.SHORTTERM, newPicture(1000, i));
+
+		for (int i=0; i<100; ++i)
+			assertTrue(cache.contains(newKey(i)));
+		assertTrue(cache.contains(newKey(499)));
+		assertFalse(cache.contains(newKey(100)));
+	}
+
+	@Test
+	public void trimToSize() throws IOException {
+		OffHeapEncodedCache cache = new OffHeapEncodedCache(mFile, PAGE_SIZE, null);
+		for (int i=0; i<10; ++i)
+			cache.put(newKey(i), LifeSpan.SHORTTERM, newPicture(1000, i));
+
+		assertEquals(6 * 1024, cache.trimToSize(4 * 1024));
+		assertFalse("least recently used first", cache.contains(newKey(0)));
+		assertTrue(cache.contains(newKey(9)));
+
+		cache.evictAll();
+		assertEquals(0, cache.getSize());
+		assertFalse(cache.contains(newKey(9)));
+	}
+}
@@ -0,0 +1,66 @@
+package com.levelup.picturecache;
+
+import st.gaw.db.Logger;
+
+/**
+ * {@link Logger} writing to the standard error, as {@link android.util.Log} is not available outside of Android
+ */
+class SystemLogger implements Logger {
+
+	private static int log(String level, String tag, String msg, Throwable tr) {
+		System.err.println(level+'/'+tag+": "+msg);
+		if (tr != null)
+			tr.printStackTrace();
+		return 0;
+	}
+
+	@Override
+	public int v(String tag, String msg) {
+		return log("V", tag, msg, null);
+	}
+
+	@Override
+	public int v(String tag, String msg, Throwable tr) {
+		return log("V", tag, msg, tr);
+	}
+
+	@Override
+	public int d(String tag, String msg) {
+		return log("D", tag, msg, null);
+	}
+
+	@Override
+	public int d(String tag, String msg, Throwable tr) {
+		return log("D", tag, msg, tr);
+	}
+
+	@Override
+	public int i(String tag, String msg) {
+		return log("I", tag, msg, null);
+	}
+
+	@Override
+	public int i(String tag, String msg, Throwable tr) {
+		return log("I", tag, msg, tr);
+	}
+
+	@Override
+	public int w(String tag, String msg) {
+		return log("W", tag, msg, null);
+	}
+
+	@Override
+	public int w(String tag, String msg, Throwable tr) {
+		return log("W", tag, msg, tr);
+	}
+
+	@Override
+	public int e(String tag, String msg) {
+		return log("E", tag, msg, null);
+	}
+
+	@Override
+	public int e(String tag, String msg, Throwable tr) {
+		return log("E", tag, msg, tr);
+	}
+}
@@ -0,0 +1,76 @@
+package com.levelup.picturecache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+
+public class UrlHashTest {
+
+	private static final String[] URLS = {
+		"",
+		"a",
+		"abcd",
+		"abcdefgh",
+		"http://example.com/a.jpg",
+		"https://pbs.twimg.com/profile_images/1234567890/avatar_normal.jpg",
+		"\u00e9\u20ac",
+	};
+
+	/** MurmurHash3 x64 128 of the UTF-16LE bytes of {@link #URLS}, as given by Guava's Hashing.murmur3_128() */
+	private static final String[] MURMUR3 = {
+		"00000000000000000000000000000000",
+		"96a698500b4e98bdb278c9bfc754677d",
+		"548cfc581a584f48076f42dc4bbe30df",
+		"2803a5bc696daeb2a2b1eb7540d6d1fa",
+		"5eb91cff1d8b27060a33d96d622d5497",
+		"5f1e97efeebeb5e910fd4f66b8b31976",
+		"a4c2db9c619c73cdf801b0244d37d7d5",
+	};
+
+	/**
+	 * the UUID of the URL based keys before {@link UrlHash}, the names of the files stored by older versions
+	 */
+	private static String oldUrlUuid(String url) throws NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("MD5");
+		byte[] md5 = digest.digest(url.getBytes());
+		return String.format("%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x%02x", md5[0], md5[1], md5[2], md5[3],
+				md5[4], md5[5], md5[6], md5[7], md5[8], md5[9], md5[10], md5[11], md5[12], md5[13], md5[14], md5[15]);
+	}
+
+	@Test
+	public void murmur3Vectors() {
+		for (int i=0; i<URLS.length; ++i)
+			assertEquals(URLS[i], MURMUR3[i], UrlHash.hash128(URLS[i]));
+	}
+
+	@Test
+	public void uuidIsMemoized() {
+		final String url = "http://example.com/memo.jpg";
+		final String uuid = UrlHash.getUuid(url);
+		assertEquals(UrlHash.hash128(url), uuid);
+		assertSame(uuid, UrlHash.getUuid(new String(url)));
+	}
+
+	@Test
+	public void legacyUuidIsTheOldMd5() throws NoSuchAlgorithmException {
+		for (String url : URLS)
+			assertEquals(url, oldUrlUuid(url), UrlHash.getLegacyUuid(url));
+	}
+
+	@Test
+	public void legacyKey() throws NoSuchAlgorithmException {
+		final String url = "https://pbs.twimg.com/profile_images/1234567890/avatar_normal.jpg";
+		CacheKey key = CacheKey.newUrlBasedKey(url, 48, false, StorageType.AUTO, "_round");
+		CacheKey legacyKey = key.copyWithLegacyUrlUuid(url);
+		assertEquals(oldUrlUuid(url), legacyKey.getUUID());
+		assertEquals(key.serialize().substring(key.getUUID().length()), legacyKey.serialize().substring(legacyKey.getUUID().length()));
+		assertTrue(key.isUrlBasedKey(url));
+		assertFalse(legacyKey.isUrlBasedKey(url));
+	}
+}